@@ -48,10 +48,9 @@
 // 7. How to Scan for and Connect to Boca Systems printers via Bluetooth
 // 8. How to establish a WIFI connection to Boca Systems printers via a wireless router on a LAN
 // 9. How to establish a USB connection to Boca Systems printers via USBOTG adapter
-//10. Some sample code has been added to attempt to automatically reconnect a USB or BT
-//    connection that has been accidently lost. Search below for ATTEMPTING_RECONNECTION to
-//    see this code.  When BT and USB connections are lost it triggers an interrupt that can be
-//    detected and reacted to.
+//10. The SDK automatically reconnects a BT, USB or WIFI connection that has been accidently
+//    lost (7.0 SetAutoReconnect).  Search below for SetConnectionListener to see how the
+//    sample is told the connection was lost and restored.
 //
 // The SDK routines listed below are all demonstrated in this test application
 //
@@ -121,7 +120,6 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.CountDownTimer;
 import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.support.v4.app.ActivityCompat;
@@ -169,10 +167,9 @@ import android.graphics.pdf.PdfRenderer.Page;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Bitmap.Config;
-import android.util.Log;
-import android.os.Looper;
 import java.util.ArrayList;
 import bocasystems.com.sdk.BocaSystemsSDK;
+import bocasystems.com.sdk.FGLBuilder;
 
 import android.os.AsyncTask;                //4.0
 import android.content.Context;             //4.0
@@ -296,6 +293,7 @@ public class MainActivity extends Activity
         }
     }
     MyBocaSystemsSDK boca = null;
+    FGLBuilder transmit = new FGLBuilder();       //7.0 reused for the Transmit button ticket
     private ArrayList<String> statusList = new ArrayList<String>();
 
     static public Handler mHandler;                     //4.0
@@ -309,6 +307,7 @@ public class MainActivity extends Activity
     protected static final int ATTEMPTING_RECONNECTION = 5;
     protected static final int DOWNLOAD_COMPLETE = 6;
     protected static final int DOWNLOAD_FAILED = 7;
+    protected static final int CONNECTION_NOT_RESTORED = 8;    //7.0
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -343,6 +342,38 @@ public class MainActivity extends Activity
         //initialize message handler
         mHandler = getHandler();                    //4.0 get an instance of message handler
 
+        //7.0 The SDK reconnects by itself when a connection is lost and the user did not close it.
+        //It retries quickly at first and then less often, and at once when Android reports the
+        //printer or network is back.  Anything sent meanwhile is printed after the reconnect.
+        boca.SetAutoReconnect(true, 100, 5000, 0);
+        boca.SetConnectionListener(new BocaSystemsSDK.ConnectionListener() {
+            boolean lost = false;
+
+            @Override
+            public void ConnectionStateChanged(int state) {
+                //called from an SDK thread, the screen is updated through the message handler
+                switch (state) {
+                    case BocaSystemsSDK.STATE_RECONNECTING:
+                        lost = true;
+                        mHandler.sendEmptyMessage(CONNECTION_LOST);
+                        mHandler.sendEmptyMessage(ATTEMPTING_RECONNECTION);
+                        break;
+                    case BocaSystemsSDK.STATE_CONNECTED:
+                        if (lost)
+                            mHandler.sendEmptyMessage(CONNECTION_RESTORED);
+                        lost = false;
+                        break;
+                    case BocaSystemsSDK.STATE_DISCONNECTED:
+                        if (lost)
+                            mHandler.sendEmptyMessage(CONNECTION_NOT_RESTORED);
+                        lost = false;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        });
+
         // take an instance of BluetoothAdapter - Blue tooth radio
         myBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         if (myBluetoothAdapter == null) {
@@ -577,10 +608,8 @@ public class MainActivity extends Activity
             public void onClick(View view) {
 //                try
 //                {
-                    String start = "<RC100,100><F11>";
-                    String txt = "Hello mahmoud";
-                    String end = "<p>";
-                    boca.SendString(start + txt + end);
+                    transmit.reset().rowColumn(100, 100).font(11).text("Hello mahmoud").cut();
+                    boca.SendData(transmit, false);
 //                     String status = boca.ReadPrinter();
 //                     AppendStatus(status);
 //                } catch(Exception e)
@@ -664,26 +693,34 @@ public class MainActivity extends Activity
                     Toast.makeText(MainActivity.this,  "The Test Ticket Count must be between 1-1000.  Currently set to 1.", Toast.LENGTH_SHORT).show();
                 }
 
-                for (int i = 0; i < TicketCount; i++) {
-
-                    switch (resolution) {
-                        case 600:
-                            //Read 600 DPI text file and send all bytes to the printer
-                            RWFile("fgltest600.txt");
-                            break;
+                String testFile;
+                switch (resolution) {
+                    case 600:
+                        //Read 600 DPI text file and send all bytes to the printer
+                        testFile = "fgltest600.txt";
+                        break;
 
-                        case 200:
-                            //Read 200 DPI text file and send all bytes to the printer
-                            RWFile("fgltest200.txt");
-                            break;
+                    case 200:
+                        //Read 200 DPI text file and send all bytes to the printer
+                        testFile = "fgltest200.txt";
+                        break;
 
-                        default:
-                            //Read 300 DPI text file and send all bytes to the printer
-                            RWFile("fgltest300.txt");
-                            break;
-                    }
+                    default:
+                        //Read 300 DPI text file and send all bytes to the printer
+                        testFile = "fgltest300.txt";
+                        break;
                 }
 
+                //7.0 when printing the same ticket repeatedly, read the asset once and send it from the SDK cache
+                if (TicketCount > 1)
+                    boca.PreloadAsset(testFile, getApplicationContext());
+
+                for (int i = 0; i < TicketCount; i++)
+                    RWFile(testFile);
+
+                if (TicketCount > 1)
+                    boca.ClearAssetCache();
+
             }
         });
 
@@ -936,47 +973,15 @@ public class MainActivity extends Activity
     }
 
     //Read one of the text files included in Assets and send it to the printer
+    //7.0 The SDK streams the asset to the printer in chunks instead of building a String one character at a time
     private void RWFile(String file_name) {
-        //InputStream inStream = null;
-        BufferedInputStream bis = null;
-        String msg = "";
         if (file_name.isEmpty())
         {
             return;
         }
         // AppendStatus(file_name);
-        try {
-            AssetManager am = getApplicationContext().getAssets();
-            InputStream inStream = am.open(file_name);
-            if (null == inStream)
-            {
-                AppendStatus("Error, could not read file");
-                return;
-            }
-
-            // input stream is converted to buffered input stream
-            bis = new BufferedInputStream(inStream);
-            if (null == bis)
-            {
-                inStream.close();
-                AppendStatus("Error, could not read file");
-                return;
-            }
-            // read until a single byte is available
-            while (bis.available() > 0) {
-                // read next available character
-                char ch = (char) bis.read();
-
-                //Debug print the read character.
-                //System.out.println("The character read = " + ch );
-                msg = msg + ch;
-            }
-            bis.close();
-            inStream.close();
-            boca.SendString(msg);                //Send FGL text file to printer as a string
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        if (!boca.SendAsset(file_name, getApplicationContext()))
+            AppendStatus("Error, could not read file");
     }
 
     //Check to see if Blue tooth is enabled in the tablet
@@ -1294,40 +1299,12 @@ public class MainActivity extends Activity
                     break;
 
                 case ATTEMPTING_RECONNECTION:
+                    //7.0 the SDK is reconnecting, see SetAutoReconnect in onCreate
+                    AppendStatus("Attempting to reconnect to " + InterfaceOfChoice);
+                    break;
 
-                    //This piece of code is optional.  This is an attempt to automatically reconnect on the
-                    //USB or BT port in the event of an accidental disconnect.  When disconnecting on either of these
-                    //two ports, an interrupt is generated by the operating systen and detected by the SDK.
-                    if ((InterfaceOfChoice.equals("BT")) || (InterfaceOfChoice.equals("USB"))) {
-                        connected = false;
-
-                        Context context;
-                        context = mainActivity.getApplicationContext();
-
-                        int count = 0;
-                        while ((!connected) & (count < 3)) {
-                            AppendStatus("Attempting to reconnect to " + InterfaceOfChoice);
-                            //May want to put in a pause if more time needed when for example the printer looses power
-                            //and reinitialization of the printer takes several seconds
-                            try {
-                                Thread.sleep(2000);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                            if (InterfaceOfChoice.equals("BT"))
-                                connected = mainActivity.boca.OpenSessionBT(InterfaceOfChoice, context);        //4.0
-                            else
-                                connected = mainActivity.boca.OpenSessionUSB(context);                          //4.0
-                            count++;
-                        }
-                    }
-
-                    //if the reconnect is successsful signal CONNECTION_RESTORED
-                    if (connected)
-                        mHandler.sendEmptyMessage(CONNECTION_RESTORED);
-                    else
-                        AppendStatus("Interface Connection Not Restored");
-
+                case CONNECTION_NOT_RESTORED:
+                    AppendStatus("Interface Connection Not Restored");
                     break;
 
                 case CONNECTION_RESTORED:
@@ -1381,152 +1358,6 @@ public class MainActivity extends Activity
         return new mHandler(this);
     }
 
-    //This routine will constantly monitor whichever one of the three interfaces is currently open
-    //If the signal is lost the user is notified on the USB and BT connections.  The WIFI is
-    //not cooperating at this time.
-
-    //I attempted to use postDelayed to control the speed of the loops and checking, to no aval
-    //I also attempted to use the coundown timer code below, but could not get it to work.  I
-    //am conviced this is the best way to control the speed of the checks.
-    //Finally I resorted to using the Thread.sleep you see below to control the speed with which
-    //the loop checks to verify a connection.  Not the best way to do this but it works.
-    public void MonitorInterfaceConnection() {
-        //final Handler handler = new Handler();
-        //handler.postDelayed(new Runnable()
-        new Thread(new Runnable()
-        {
-            boolean checking = true;
-
-            @Override
-            public void run()
-            {
-                try{
-
-                    boolean status = true;
-                    Looper.prepare();
-                    while (checking)
-                    {
-                        //checking = start();
-
-                        Thread.sleep(2000);
-
-                        switch (InterfaceOfChoice) {
-                            //connect USB through the OTG adapter
-                            case "USB":                                                     //4.0
-                                status = boca.VerifyConnectionUSB();
-                                break;
-
-                            case "BT":                                                      //4.0
-                                status = boca.VerifyConnectionBT();
-                                break;
-
-                            case "WIFI":                                                    //4.0
-                                status = boca.VerifyConnectionWIFI();
-                                break;
-
-                            default:
-                                checking = false;
-                                break;
-                        }
-
-                        if (!status) {
-                            //notify user of lost connection
-                            mHandler.sendEmptyMessage(CONNECTION_LOST);
-                            //toggle flag to exit loop
-                            checking = false;
-
-                            //if the BT or USB connection was lost accidentally (not by user), then attempt to reconnect
-                            //The flag ClosedConnectionOnPurpose is set to true if the user presses the disconnect button so
-                            //there is no attempt to reconnect when the user disconnects purposely.
-                            //This will only work if the problem is resolved quickly.  Should the reason be, the printer is
-                            //off or the USB cable is physically disconnected for too long, then obviously, this will not work.
-                            //If there is no need for automatic reconnect then comment out these two lines of code
-                            if ((!ClosedConnectionOnPurpose) && ((InterfaceOfChoice.equals("BT")) || (InterfaceOfChoice.equals("USB")))) {
-                                mHandler.sendEmptyMessage(ATTEMPTING_RECONNECTION);
-                            }
-                        }
-
-                        }
-                    //cancel();
-                    Looper.loop();
-                } catch (Throwable t) {
-                    Log.d("halted due to an error",t.getMessage());
-                }
-            }
-
-            //This CountDownTimer code was not working correctly at release time so the code above with the Thread.sleep command
-            //is being used.  I left the code below in the sample because I know it is almost correct.  Should someone get this working so that the
-            //Thread.sleep above is not needed, please feel free to email the fix to michael@bocasystems.com.  We are always looking
-            //to improve the sample code.
-            CountDownTimer countDownTimer;
-            boolean runloop = true;
-
-            public boolean start( ) {
-
-                //countDownTimer:
-                new CountDownTimer(5000, 1000) {
-
-                    @Override
-                    public void onTick(long millisUntilFinished) {
-                        Log.d("seconds remaining: ", String.valueOf(millisUntilFinished / 1000));
-                    }
-
-                    @Override
-                    public void onFinish() {
-
-                        boolean status = true;
-
-                        switch (InterfaceOfChoice) {
-                        //connect USB through the OTG adapter
-                        case "USB":                                                     //4.0
-                            status = boca.VerifyConnectionUSB();
-                            break;
-
-                        case "BT":                                                      //4.0
-                            status = boca.VerifyConnectionBT();
-                            break;
-
-                        case "WIFI":                                                    //4.0
-                            status = boca.VerifyConnectionWIFI();
-                            break;
-
-                        default:
-                            runloop = false;
-                            break;
-                        }
-
-                        if (!status) {
-                            mHandler.sendEmptyMessage(CONNECTION_LOST);
-
-                            //if the BT or USB connection was lost accidentally (not by user), then attempt to reconnect
-                            //The flag ClosedConnectionOnPurpose is set to true if the user presses the disconnect button so
-                            //there is no attempt to reconnect when the user disconnects purposely.
-                            //This will only work if the problem is resolved quickly.  Should the reason be, the printer is
-                            //off or the USB cable is physically disconnected for too long, then obviously, this will not work.
-                            //If there is no need for automatic reconnect then comment out these two lines of code
-                            if ((!ClosedConnectionOnPurpose) && ((InterfaceOfChoice.equals("BT")) || (InterfaceOfChoice.equals("USB")))) {
-                                mHandler.sendEmptyMessage(ATTEMPTING_RECONNECTION);
-                            }
-                        }
-
-                    }
-                };
-                return (runloop);
-            }
-
-            private void cancel(){
-
-                if(countDownTimer != null)
-                {
-                    countDownTimer.cancel();
-                    countDownTimer = null;
-                }
-            }
-        }).start();
-
-
-    }
-
     //Display on the tablet PDF, BMP, JPG and PNG image files
     //TXT files will not be displayed
     public void Display_File(final String filename)
@@ -1623,8 +1454,7 @@ public class MainActivity extends Activity
             }
 
             AppendStatus("Connected");
-            //Monitor interface connectivity
-            MonitorInterfaceConnection();
+            //7.0 the SDK watches the connection itself, see SetConnectionListener in onCreate
 
 
         }
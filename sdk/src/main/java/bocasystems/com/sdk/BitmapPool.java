@@ -0,0 +1,175 @@
+package bocasystems.com.sdk;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+//7.0 Pool of mutable bitmaps kept between print jobs so image decoding, PDF rendering and scaling do not
+//allocate and recycle a full page of native memory every ticket.  Bitmaps are grouped in buckets by
+//allocation size (powers of two) and reconfigured to the size asked for when they are handed out.
+//Once the pooled bitmaps reach the size limit the oldest ones are recycled.
+public class BitmapPool {
+
+    private static final int BUCKETS = 32;
+
+    private final ArrayList<ArrayList<Bitmap>> buckets;
+    private final ArrayDeque<Bitmap> age;               //oldest pooled bitmap first, used for eviction
+    private long maxBytes;
+    private long pooledBytes = 0;
+
+    //metrics
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+        buckets = new ArrayList<ArrayList<Bitmap>>(BUCKETS);
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.add(new ArrayList<Bitmap>());
+        age = new ArrayDeque<Bitmap>();
+    }
+
+    //Return a mutable bitmap of the given size.  The contents are undefined, callers must clear it if needed.
+    public synchronized Bitmap get(int width, int height, Config config) {
+        int needed = width * height * BytesPerPixel(config);
+        int bucket = Bucket(needed);
+
+        //bitmaps in the exact bucket may still be a little small, anything in the next bucket up is big enough
+        for (int b = bucket; b < BUCKETS && b <= bucket + 1; b++) {
+            ArrayList<Bitmap> list = buckets.get(b);
+            for (int i = list.size() - 1; i >= 0; i--) {
+                Bitmap bitmap = list.get(i);
+                if (bitmap.getAllocationByteCount() >= needed) {
+                    list.remove(i);
+                    age.remove(bitmap);
+                    pooledBytes -= bitmap.getAllocationByteCount();
+                    hits++;
+                    if (bitmap.getWidth() != width || bitmap.getHeight() != height || bitmap.getConfig() != config)
+                        bitmap.reconfigure(width, height, config);
+                    return (bitmap);
+                }
+            }
+        }
+
+        misses++;
+        return (Bitmap.createBitmap(width, height, config));
+    }
+
+    //Hand a bitmap back to the pool.  Bitmaps that can not be reused or that do not fit are recycled.
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled())
+            return;
+        if (!bitmap.isMutable()) {
+            bitmap.recycle();
+            return;
+        }
+
+        int size = bitmap.getAllocationByteCount();
+        if (size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        while (pooledBytes + size > maxBytes && !age.isEmpty())
+            EvictOldest();
+
+        buckets.get(Bucket(size)).add(bitmap);
+        age.addLast(bitmap);
+        pooledBytes += size;
+    }
+
+    //Decode an image file, reusing a pooled bitmap for the pixels when possible
+    public Bitmap decodeFile(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        Bitmap bitmap;
+
+        //read the size only, so a matching bitmap can be taken from the pool
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return (BitmapFactory.decodeFile(path));
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inPreferredConfig = Config.ARGB_8888;
+        Bitmap pooled = get(options.outWidth, options.outHeight, Config.ARGB_8888);
+        options.inBitmap = pooled;
+        try {
+            bitmap = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            //the decoder could not use the pooled bitmap, decode into a new one
+            put(pooled);
+            options.inBitmap = null;
+            return (BitmapFactory.decodeFile(path, options));
+        }
+        if (bitmap == null)
+            put(pooled);                                //corrupt or truncated file, the pixels were not used
+        return (bitmap);
+    }
+
+    public synchronized void setMaxSize(long maxBytes) {
+        this.maxBytes = maxBytes;
+        while (pooledBytes > maxBytes && !age.isEmpty())
+            EvictOldest();
+    }
+
+    public synchronized long getMaxSize() {
+        return (maxBytes);
+    }
+
+    //Recycle everything in the pool
+    public synchronized void clear() {
+        while (!age.isEmpty())
+            EvictOldest();
+    }
+
+    public synchronized long getPooledBytes() {
+        return (pooledBytes);
+    }
+
+    public synchronized long getHitCount() {
+        return (hits);
+    }
+
+    public synchronized long getMissCount() {
+        return (misses);
+    }
+
+    public synchronized long getEvictionCount() {
+        return (evictions);
+    }
+
+    //Fraction of requests served from the pool, 0 to 1
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return (total == 0 ? 0.0 : (double) hits / total);
+    }
+
+    private void EvictOldest() {
+        Bitmap bitmap = age.removeFirst();
+        int size = bitmap.getAllocationByteCount();
+        buckets.get(Bucket(size)).remove(bitmap);
+        pooledBytes -= size;
+        evictions++;
+        bitmap.recycle();
+    }
+
+    //smallest power of two that holds the given number of bytes
+    private static int Bucket(int bytes) {
+        if (bytes <= 1)
+            return (0);
+        return (Math.min(BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(bytes - 1)));
+    }
+
+    private static int BytesPerPixel(Config config) {
+        if (config == Config.ALPHA_8)
+            return (1);
+        if (config == Config.RGB_565)
+            return (2);
+        return (4);
+    }
+}
@@ -50,6 +50,8 @@ import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 import android.os.AsyncTask;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
 import android.view.View;
 import android.widget.AdapterView;
@@ -63,10 +65,25 @@ import android.widget.TextView;
 //4.0 import java.io.FileNotFoundException;
 //4.0 import java.io.InputStream;
 //4.0 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Iterator;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import android.graphics.Matrix;
 import android.os.ParcelFileDescriptor;
 //4.0 import java.io.File;
@@ -102,7 +119,7 @@ public abstract class BocaSystemsSDK {
 
     //Handler/Callback function and constants
     //Used for threads to communicate with each other
-    static private Handler mHandler;            //4.0 made it static
+    private Handler mHandler;                   //4.0 made it static    //7.0 per session again, see PrinterManager
     static final int CONNECTION_FAILED = 0;
     static final int CONNECTION_SUCCESSFUL = 1;
     static final int DISCONNECTED = 2;
@@ -111,17 +128,18 @@ public abstract class BocaSystemsSDK {
     static final int WRITE_FAILED = 5;
     static final int WRITE_FAILED_ABORT = 6;
     static final int STATUS_REPORT = 9;
-    static boolean connected = false;           //4.0 made it static
-    static boolean reading = false;             //4.0 made it static
+    static final int STATUS_FLUSH = 10;                 //7.0 report text the printer sent without a line end
+    volatile boolean connected = false;         //4.0 made it static    //7.0 per session
+    volatile boolean reading = false;           //4.0 made it static    //7.0 per session
     //private final int DATA = 1;               //4.0 made it local
     //private final int ZEROS = 0;              //4.0 made it local
 
-    static private BluetoothSocket btsocket;            //4.0 made it static
+    private BluetoothSocket btsocket;                   //4.0 made it static    //7.0 per session
     private UsbInterface interfaceOut;
     private UsbInterface interfaceIn;
     private int portNumber=9100;            //4.0 Boca Systems Ethernet printer port number
     private Socket client;                  //4.0
-    private OutputStreamWriter printwriter;
+    private OutputStream printstream;                //7.0 buffered socket output, replaces the ISO-8859-1 printwriter
     private InputStreamReader printreader;
     private BocaSystemsSDK.ConnectedThreadBT mConnectedThreadBT;
     private BocaSystemsSDK.ConnectedThreadUSB mConnectedThreadUSB;
@@ -129,7 +147,6 @@ public abstract class BocaSystemsSDK {
 
     //byte[] BitmapData;
 
-    static byte[] readBuf = new byte[128];         //4.0
     //4.0 int count = 0;
 
     //The application Paint uses a 62 bit header
@@ -226,7 +243,7 @@ public abstract class BocaSystemsSDK {
     private final Byte BLACK = 0;
     private final Byte WHITE = 1;
     private final int DITHERTHRESHOLD = 128;
-    private int readThreadCount = 0;
+    private volatile int readThreadCount = 0;           //7.0 volatile, a reconnect waits for it to reach 0
 
 // --Commented out by Inspection START (5/18/18, 3:16 PM):
 //Stock Sizes
@@ -264,8 +281,8 @@ public abstract class BocaSystemsSDK {
     private final OutputStream mmOutStream = null;
     private String FileExtension = "";
     private String LogoNumber = "";
-    static String StatusReturned = "";              //return string from printer    //4.0 made it static
-    static String Mode = "";                        //3.0 Added USB //4.0 made it static
+    volatile String StatusReturned = "";            //return string from printer    //4.0 made it static    //7.0 per session
+    volatile String Mode = "";                      //3.0 Added USB //4.0 made it static    //7.0 per session
 
     //3.0 Added USB
     //4.0 Spinner spEndPoint;
@@ -293,15 +310,110 @@ public abstract class BocaSystemsSDK {
     //4.0 private PendingIntent WIFIReason;
 
     private UsbDevice USBdevice;
-    static boolean VerifyConnection=false;          //4.0 made it static
+    volatile boolean VerifyConnection=false;        //4.0 made it static    //7.0 per session
     //4.0 private String CurrentBTDevice = "";      //4.0 made this a local
 
     //4.0 private byte[] bytes;
     //4.0 private byte[] bytesin;
     //4.0 private static int TIMEOUT = 0;       //4.0 made this a local
 
-    private boolean WifiProcessing = false;             //used to control WIFI connection timing for success/failure
+    private int connectTimeout = 5000;                  //7.0 ms allowed for a Wi-Fi connect, see SetConnectTimeout
 
+    //7.0 Multi-page PDF jobs are rendered on one thread and transmitted on another.  This is how many
+    //encoded pages may wait for the transport.  Each one holds a full page of graphics so keep it small.
+    private static final int PDF_LOOKAHEAD = 2;
+
+    //7.0 One rendered and encoded PDF page handed from the render thread to the transport
+    private static class EncodedPage {
+        final byte[] data;
+        final String logo;
+
+        private EncodedPage(byte[] data, String logo) {
+            this.data = data;
+            this.logo = logo;
+        }
+    }
+    private static final EncodedPage END_OF_PAGES = new EncodedPage(null, "");
+
+    private Bitmap pdfBitmap;                           //7.0 PDF render target, reused across pages and jobs
+
+    private static final int STREAM_CHUNK = 16384;      //7.0 bytes read from a text file per transport write
+    private WifiWriter wifiWriter;                      //7.0 ordered writer thread for the Wi-Fi session
+    private volatile WifiSelector wifiSelector;         //7.0 shared Wi-Fi transport, see SetWifiSelector
+    private volatile WifiSelector.Connection wifiConnection;    //7.0 the session's connection on wifiSelector
+    private final byte[] wifiRead = new byte[4096];     //7.0 selector thread only
+    private final FlowControl flowControl = new FlowControl();  //7.0 X-On/X-Off gate for all transport writers
+    private final TicketTracker tickets = new TicketTracker();  //7.0 ACK/NAK per ticket sent with SendTicket
+    private volatile PrintSpooler spooler;              //7.0 journals SendTicket, see SetPrintSpooler
+    private volatile String spoolPrinter;               //7.0 printer name the tickets are journaled under
+
+    //7.0 Connection states reported to the ConnectionListener
+    public static final int STATE_DISCONNECTED = 0;
+    public static final int STATE_CONNECTED = 1;
+    public static final int STATE_RECONNECTING = 2;
+
+    //7.0 Told when the session connects, drops and is reconnected, see SetConnectionListener
+    public interface ConnectionListener {
+        void ConnectionStateChanged(int state);
+    }
+
+    private volatile ConnectionListener connectionListener;     //7.0
+
+    //7.0 Told of every status the printer reports, see AddStatusListener
+    public interface StatusListener {
+        void StatusReceived(StatusEvent event);
+    }
+
+    private static HandlerThread statusThread;          //7.0 decodes status for all sessions, see StatusLooper
+    private final Handler statusHandler = new mHandler(this, StatusLooper());  //7.0 read bytes to decode
+    private volatile Executor statusExecutor = MainThreadExecutor();    //7.0 see SetStatusExecutor
+
+    private static final int STATUS_RING = 256;         //7.0 bytes of status text waiting for a line end
+    private static final int STATUS_RETURNED_MAX = 4096;    //7.0 characters kept in StatusReturned
+    private static final long STATUS_FLUSH_DELAY = 100; //7.0 ms of quiet before unended text is reported
+    private final CopyOnWriteArrayList<StatusListener> statusListeners = new CopyOnWriteArrayList<StatusListener>();
+    private final StatusDecoder statusDecoder = new StatusDecoder(STATUS_RING, new StatusDecoder.Sink() {
+        @Override
+        public void Status(StatusEvent event) {
+            PublishStatus(event);
+        }
+    });
+    private volatile boolean sessionOpen = false;       //7.0 open and not closed on purpose
+    private volatile boolean autoReconnect = false;     //7.0 see SetAutoReconnect
+    private volatile boolean reconnecting = false;      //7.0 changed while holding held
+    private final AtomicInteger linkGeneration = new AtomicInteger();   //7.0 moved on when a transport is released
+    private String reconnectTarget = "";                //7.0 Bluetooth device or IP address to reopen
+    private final ArrayDeque<byte[]> held = new ArrayDeque<byte[]>();  //7.0 data sent while reconnecting
+    private long heldBytes = 0;                         //7.0 guarded by held
+    private long maxHeldBytes = 4 * 1024 * 1024;        //7.0 guarded by held
+    private final Reconnector reconnector = new Reconnector(new Reconnector.Target() {
+        @Override
+        public boolean Reopen() {
+            return (ReopenSession());
+        }
+
+        @Override
+        public void Finished(boolean reconnected) {
+            ReconnectFinished(reconnected);
+        }
+    });
+    private static final int USB_DEPTH = 4;             //7.0 USB bulk transfers in flight at once
+    private static final int USB_CHUNK = 16384;         //7.0 largest USB transfer, the UsbRequest limit before API 26
+    private static final int USB_MIN_CHUNK = 1024;      //7.0 smallest USB transfer the chunk tuner may pick
+    private static final int FLOW_BLOCK = 4096;         //7.0 bytes written between X-Off checks on Bluetooth
+    private static final int WIFI_QUEUE = 256;          //7.0 writes queued before SendString/SendData wait
+    private static final long WIFI_CLOSE_WAIT = 2000;   //7.0 ms to let queued writes go out on close
+    private final HashMap<String, byte[]> assetCache = new HashMap<String, byte[]>();   //7.0 see PreloadAsset
+
+    //7.0 Bitmaps for decoding, PDF rendering and scaling are borrowed from this pool instead of being
+    //allocated and recycled for every job.  Default limit is 1/8 of the heap, see SetBitmapPoolSize.
+    private final BitmapPool bitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+
+    //Messages from the SDK and, for a USB session, the status the printer reports.  Bluetooth and Wi-Fi
+    //status is only kept in StatusReturned; use AddStatusListener for status from every transport.
+    //7.0 Status and the messages the SDK raises on its own threads come on the main thread, as before,
+    //unless SetStatusExecutor says otherwise.  After SetStatusExecutor(null) they come on the SDK status
+    //thread, and an implementation that touches views must post to the main thread itself.
     public abstract void StatusReportCallback(String statusReport);
     public abstract long getMemorySizeInBytes();
 
@@ -312,6 +424,12 @@ public abstract class BocaSystemsSDK {
         private final WeakReference<BocaSystemsSDK> myClassWeakReference;
 
         private mHandler(BocaSystemsSDK myClassInstance) {
+            this(myClassInstance, Looper.getMainLooper());      //7.0 sessions may be opened off the main thread, see PrinterManager
+        }
+
+        //7.0 status messages are handled on the SDK status thread, see StatusLooper
+        private mHandler(BocaSystemsSDK myClassInstance, Looper looper) {
+            super(looper);
             myClassWeakReference = new WeakReference<BocaSystemsSDK>(myClassInstance);
         }
 
@@ -332,24 +450,24 @@ public abstract class BocaSystemsSDK {
 
                         //Toast.makeText(getApplicationContext(), "Connection Successful", Toast.LENGTH_SHORT).show();
 
-                        connected = true;        //set connection status
+                        myClass.connected = true;        //set connection status
                         break;
 
                     case CONNECTION_FAILED:
 
                         //Toast.makeText(getApplicationContext(),"Connection Failed" , Toast.LENGTH_SHORT).show();
 
-                        connected = false;        //reset connection status
+                        myClass.connected = false;        //reset connection status
                         break;
 
                     case DISCONNECTED:
 
                         //Toast.makeText(getApplicationContext(), "Disconnected", Toast.LENGTH_SHORT).show();
 
-                        connected = false;        //reset connection status
-                        btsocket = null;        //clear pointer
-                        reading = false;        //Stop while loop in read thread
-                        VerifyConnection = false;
+                        myClass.connected = false;        //reset connection status
+                        myClass.btsocket = null;        //clear pointer
+                        myClass.reading = false;        //Stop while loop in read thread
+                        myClass.VerifyConnection = false;
 
                         break;
 
@@ -363,112 +481,134 @@ public abstract class BocaSystemsSDK {
 
                     case MESSAGE_READ:
 
-                        if(Mode.equals("WIFI"))
-                            readBuf = CharsToBytes((char[])msg.obj);
-                        else
-                            readBuf = (byte[]) msg.obj;
-                        EstablishStatus(msg.arg1);
+                        //7.0 the read thread does not touch the slice again, see DispatchRead
+                        ReadSlice slice = (ReadSlice) msg.obj;
+                        myClass.DecodeStatus(slice.data(), slice.length());
+                        slice.recycle();
+
+                        break;
 
+                    case STATUS_FLUSH:
+                        myClass.statusDecoder.flush();      //7.0
                         break;
 
                     case STATUS_REPORT:
-                        AppendStatus(String.valueOf(msg.arg2));
+                        myClass.AppendStatus(String.valueOf(msg.arg2));
                         break;
                 }
             }
         }
+    }
 
-        //4.0 This routine distinquishes between known status responses and string responses
-        private void EstablishStatus(int count)
-        {
-            int i;
-            byte x;
-            String statusResponse;
-            String stringMessage = "";
+    //4.0
+    private Handler getHandler() {
+        return new mHandler(this);
+    }
 
-            //loop for each character in readBuf array
-            for(i = 0; i < count; i++)
-            {
-                //look at each character
-                x = readBuf[i];
+    //7.0 One "BocaStatus" thread decodes status for every session, so a stream of ACKs during a large
+    //job does not compete with the application's UI for the main thread
+    private static synchronized Looper StatusLooper() {
+        if (statusThread == null) {
+            statusThread = new HandlerThread("BocaStatus");
+            statusThread.setDaemon(true);
+            statusThread.start();
+        }
+        return (statusThread.getLooper());
+    }
 
-                //Check the byte for a known status value
-                switch (x) {
-                    case 6:
-                        statusResponse = "Ticket ACK";
-                        break;
-                    case 16:
-                        statusResponse = "Out of Tickets";
-                        break;
-                    case 17:
-                        statusResponse = "X-On";
-                        break;
-                    case 18:
-                        statusResponse = "Power On";
-                        break;
-                    case 19:
-                        statusResponse = "X-Off";
-                        break;
-                    case 21:
-                        statusResponse = "Ticket NAK";
-                        break;
-                    case 24:
-                        statusResponse = "Ticket Jam";
-                        break;
-                    case 25:
-                        statusResponse = "Illegal Data";
-                        break;
-                    case 26:
-                        statusResponse = "Power Up Problem";
-                        break;
-                    case 27:
-                        statusResponse = "Ticket NAK";
-                        break;
-                    case 28:
-                        statusResponse = "Downloading Error";
-                        break;
-                    case 29:
-                        statusResponse = "Cutter Jam";
-                        break;
-                    default:
-                        statusResponse = "";    //else null
-                        break;
-                }
+    //7.0 Posts to the main thread, where status was reported before it was decoded on the status thread
+    private static Executor MainThreadExecutor() {
+        final Handler main = new Handler(Looper.getMainLooper());
+        return (new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                main.post(command);
+            }
+        });
+    }
 
-                //If not a known status value, check to see if byte is a printable character
-                //                if ((x >= 32) && (x < 128))
-                if (x >= 32)
-                {
-                    stringMessage += (char)x;
+    //7.0 Status from every transport goes through one decoder on the status thread, see StatusDecoder.
+    //Text with no line end is reported once the printer has been quiet for STATUS_FLUSH_DELAY.
+    private void DecodeStatus(byte[] data, int count) {
+        statusDecoder.decode(data, 0, count);
+        statusHandler.removeMessages(STATUS_FLUSH);
+        if (statusDecoder.hasPendingText())
+            statusHandler.sendEmptyMessageDelayed(STATUS_FLUSH, STATUS_FLUSH_DELAY);
+    }
+
+    //7.0 Report a decoded status to StatusReturned, then to StatusReportCallback and the status
+    //listeners on the status executor, the main thread by default, or the status thread if that is null.
+    //StatusReportCallback
+    //is only called for USB status, as before 7.0, Bluetooth and Wi-Fi status only went to StatusReturned.
+    private void PublishStatus(final StatusEvent event) {
+        AppendStatus(event.getText());
+        if (!Mode.equals("USB") && statusListeners.isEmpty())
+            return;                                 //no one to tell, post nothing to the main thread
+        Executor executor = statusExecutor;
+        if (executor == null) {
+            DeliverStatus(event);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                DeliverStatus(event);
+            }
+        });
+    }
+
+    //7.0 Messages the SDK raises on its own threads, such as the reconnect and read threads, go the same
+    //way as decoded status, in order with it and on the executor if there is one
+    private void ReportStatus(final String message) {
+        statusHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Executor executor = statusExecutor;
+                if (executor == null) {
+                    StatusReportCallback(message);
+                    return;
                 }
-                else
-                {
-                    //If not, is there a status response or string message established, then display it
-                    if(stringMessage.length() > 0)
-                    {
-                        AppendStatus(stringMessage);
-                        stringMessage = "";
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        StatusReportCallback(message);
                     }
-                    if(statusResponse.length() > 0)
-                        AppendStatus(statusResponse);
-                }
+                });
             }
-            //Display any residual string message that may have been built and not yet displayed
-            if(stringMessage.length() > 0)
-                AppendStatus(stringMessage);
+        });
+    }
 
-        }
+    private void DeliverStatus(StatusEvent event) {
+        if (Mode.equals("USB"))
+            StatusReportCallback(event.getText());
+        for (StatusListener listener : statusListeners)
+            listener.StatusReceived(event);
+    }
 
-        //append text message to Printer Status area
-        private void AppendStatus (String msg) {
-            StatusReturned = StatusReturned + msg;
-        }
+    //append text message to Printer Status area
+    //7.0 only the last STATUS_RETURNED_MAX characters are kept, nothing may be reading them
+    private void AppendStatus(String msg) {
+        String status = StatusReturned + msg;
+        if (status.length() > STATUS_RETURNED_MAX)
+            status = status.substring(status.length() - STATUS_RETURNED_MAX);
+        StatusReturned = status;
+    }
 
+    //7.0 Hand bytes from a read thread to the status handler.  The read thread reads into its buffer
+    //again straight away, so the handler gets a pooled slice holding a copy of just the bytes read.
+    private void DispatchRead(byte[] buffer, int count) {
+        for (int offset = 0; offset < count; offset += ReadSlice.CAPACITY) {
+            ReadSlice slice = ReadSlice.obtain(buffer, offset, count - offset);
+            statusHandler.obtainMessage(MESSAGE_READ, slice.length(), -1, slice).sendToTarget();
+        }
     }
 
-    //4.0
-    private Handler getHandler() {
-        return new mHandler(this);
+    //Wi-Fi reads ISO-8859-1 chars, one per byte
+    private void DispatchRead(char[] buffer, int count) {
+        for (int offset = 0; offset < count; offset += ReadSlice.CAPACITY) {
+            ReadSlice slice = ReadSlice.obtain(buffer, offset, count - offset);
+            statusHandler.obtainMessage(MESSAGE_READ, slice.length(), -1, slice).sendToTarget();
+        }
     }
 
 
@@ -495,7 +635,7 @@ public abstract class BocaSystemsSDK {
             status = RWTextFile(filename);
         } else if (filename.endsWith("PDF") || filename.endsWith("pdf")) {
             FileExtension = "pdf";
-            status = PdfToBmp(filename);
+            status = PdfToBmp(filename, null);
         } else if (filename.endsWith("PNG") || filename.endsWith("png")) {
             FileExtension = "png";
             status = ImageToBmp(filename);
@@ -504,7 +644,12 @@ public abstract class BocaSystemsSDK {
             status = ImageToBmp(filename);
         } else if (filename.endsWith("BMP") || filename.endsWith("bmp")) {
             FileExtension = "bmp";
-            status = ImageToBmp(filename);
+            //7.0 monochrome BMPs go straight to the graphics encoder unless they need scaling
+            ByteBuffer mono = ImageScaled ? null : MapMonochromeBMP(filename);
+            if (mono != null)
+                status = MonochromeBmpToFGL(mono);
+            else
+                status = ImageToBmp(filename);
         } else {
             FileExtension = "";
             status = false;
@@ -513,6 +658,78 @@ public abstract class BocaSystemsSDK {
         return (status);
     }
 
+    //7.0 Same as SendFile above, but only pages firstPage through lastPage of a PDF are printed.
+    //Pages are numbered from 0 and the range is limited to the pages the document has.  Any other
+    //file type is sent as a whole.
+    public boolean SendFile(String filename, int row, int column, int firstPage, int lastPage) {
+        int[] pages;
+
+        if (!(filename.endsWith("PDF") || filename.endsWith("pdf")))
+            return (SendFile(filename, row, column));
+
+        int count = GetPdfPageCount(filename);
+        firstPage = Math.max(firstPage, 0);
+        lastPage = Math.min(lastPage, count - 1);
+        if (lastPage < firstPage)
+            return (false);
+
+        pages = new int[lastPage - firstPage + 1];
+        for (int i = 0; i < pages.length; i++)
+            pages[i] = firstPage + i;
+
+        return (SendFile(filename, row, column, pages));
+    }
+
+    //7.0 Same as SendFile above, but only the listed pages of a PDF are printed, in the order given.
+    //Only the requested pages are opened.  Pages are numbered from 0 and pages past the end of the
+    //document are skipped.  Any other file type is sent as a whole.
+    public boolean SendFile(String filename, int row, int column, int[] pages) {
+
+        boolean status;
+
+        if (!(filename.endsWith("PDF") || filename.endsWith("pdf")))
+            return (SendFile(filename, row, column));
+
+        LogoNumber = "";
+        originalx = row;
+        originaly = column;
+        FileExtension = "pdf";
+        status = PdfToBmp(filename, pages);
+
+        return (status);
+    }
+
+    //7.0 Return the number of pages in a PDF file without rendering any of them, or -1 if the
+    //file can not be opened as a PDF.
+    public int GetPdfPageCount(String filename) {
+        int count = -1;
+        ParcelFileDescriptor fd = getSeekableFileDescriptor(filename);
+
+        if (fd == null)
+            return (count);
+
+        PdfRenderer renderer = null;
+        try {
+            renderer = new PdfRenderer(fd);
+            count = renderer.getPageCount();
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            //the renderer closes the descriptor, without one it has to be closed here
+            if (renderer != null) {
+                renderer.close();
+            } else {
+                try {
+                    fd.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return (count);
+    }
+
     public boolean DownloadLogo(String filename, int idnum) {
         boolean status;
 
@@ -520,7 +737,7 @@ public abstract class BocaSystemsSDK {
 
         if (filename.endsWith("PDF") || filename.endsWith("pdf")) {
             FileExtension = "pdf";
-            status = PdfToBmp(filename);
+            status = PdfToBmp(filename, null);
         } else if (filename.endsWith("PNG") || filename.endsWith("png")) {
             FileExtension = "png";
             status = ImageToBmp(filename);
@@ -529,7 +746,12 @@ public abstract class BocaSystemsSDK {
             status = ImageToBmp(filename);
         } else if (filename.endsWith("BMP") || filename.endsWith("bmp")) {
             FileExtension = "bmp";
-            status = ImageToBmp(filename);
+            //7.0 monochrome BMPs go straight to the graphics encoder unless they need scaling
+            ByteBuffer mono = ImageScaled ? null : MapMonochromeBMP(filename);
+            if (mono != null)
+                status = MonochromeBmpToFGL(mono);
+            else
+                status = ImageToBmp(filename);
         } else {
             FileExtension = "";
             status = false;
@@ -540,18 +762,15 @@ public abstract class BocaSystemsSDK {
 
     public boolean PrintLogo(int idnum, int row, int column) {
         boolean status = true;
+        ByteSink outgoing = ByteSink.obtain();         //7.0 build the FGL command without Strings
         try {
-            String outgoing = "<SP";
-            outgoing = outgoing + String.valueOf(row);
-            outgoing = outgoing + ",";
-            outgoing = outgoing + String.valueOf(column);
-            outgoing = outgoing + "><LD";
-            outgoing = outgoing + String.valueOf(idnum);
-            outgoing = outgoing + ">";
-            SendString(outgoing);
+            new FGLBuilder(outgoing).logoPosition(row, column).printLogo(idnum);
+            SendData(outgoing, false);
         } catch (Exception e) {
             status = false;
             e.printStackTrace();
+        } finally {
+            outgoing.recycle();
         }
 
 
@@ -710,8 +929,222 @@ public abstract class BocaSystemsSDK {
 
     }
 
+    //7.0 Limit the memory kept by the bitmap pool, in bytes.  Zero disables pooling.
+    public void SetBitmapPoolSize(long bytes) {
+        bitmapPool.setMaxSize(bytes);
+    }
+
+    //7.0 Bitmap pool, for hit rate and memory metrics
+    public BitmapPool GetBitmapPool() {
+        return (bitmapPool);
+    }
+
+    //7.0 Pause writing when the printer sends X-Off and resume on X-On.  If no X-On arrives within
+    //timeoutMillis writing carries on, 0 waits for it indefinitely.  Enabled with a 10 second timeout by default.
+    public void SetFlowControl(boolean enabled, long timeoutMillis) {
+        flowControl.setEnabled(enabled);
+        flowControl.setTimeout(timeoutMillis);
+    }
+
+    //7.0 Number of times writing carried on because no X-On arrived in time
+    public long GetFlowControlTimeouts() {
+        return (flowControl.getTimeoutCount());
+    }
+
+    //7.0 Bytes per USB transfer the current session settled on, 0 without a USB session
+    public int GetUsbChunkSize() {
+        ConnectedThreadUSB usb = mConnectedThreadUSB;
+        if (usb == null || usb.usbWriter == null)
+            return (0);
+        return (usb.usbWriter.getTuner().chunk());
+    }
+
+    //7.0 USB throughput in bytes per second measured at that transfer size, 0 until measured
+    public long GetUsbThroughput() {
+        ConnectedThreadUSB usb = mConnectedThreadUSB;
+        if (usb == null || usb.usbWriter == null)
+            return (0);
+        return ((long) usb.usbWriter.getTuner().getRate());
+    }
+
+    //7.0 Send one ticket and track the printer's answer to it.  Waits while the ticket window is full,
+    //so the printer is kept busy without fixed delays between tickets.  This blocks the calling thread,
+    //for up to the window wait set with SetTicketWindow, 2 seconds by default; if the window is still full
+    //then, nothing is sent and the Future has already failed with "Ticket window full".  Call it from a
+    //worker thread to wait longer.  The Future completes with true on Ticket ACK and fails with the
+    //status on NAK, jam, no answer in time or the session closing.
+    //The printer's ticket ACK has to be turned on.  The data should end with a cut or no-cut command.
+    //With a PrintSpooler set, the ticket is journaled before it is sent, see SetPrintSpooler.
+    public Future<Boolean> SendTicket(ByteSink sink, boolean FF)
+    {
+        PrintSpooler journal = spooler;
+        if (journal != null) {
+            byte[] payload = sink.toByteArray();
+            try {
+                return (SendSpooled(journal.enqueue(spoolPrinter, FF && Mode.equals("WIFI") ? WithFormFeed(payload) : payload)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                StatusReportCallback("Ticket not spooled: " + e.getMessage());
+                return (null);
+            }
+        }
+        TicketTracker.Ticket ticket = tickets.begin();
+        if (ticket == null || ticket.isDone())
+            return (ticket);                        //interrupted or no room in the window
+        SendData(sink, FF);
+        return (ticket);
+    }
+
+    //7.0 Journal every ticket sent with SendTicket in spooler under the printer's name, so that after
+    //the app is killed it knows which tickets never went out and which may have printed.  A ticket is
+    //on disk as queued before it is sent and marked sending just before.  Its ACK marks it acknowledged;
+    //a NAK, jam, no ACK in time or a lost connection marks it failed, kept until it is requeued or
+    //discarded.  null stops journaling.
+    public void SetPrintSpooler(PrintSpooler spooler, String printer)
+    {
+        spoolPrinter = printer;
+        this.spooler = spooler;
+    }
+
+    //7.0 Send a job from the spool set with SetPrintSpooler, such as one getQueued() or getUncertain()
+    //returned after a restart, and track it like SendTicket.  A failed job has to be requeued first.
+    //Returns null if the payload could not be read or the wait for the window was interrupted.
+    public Future<Boolean> SendSpooled(final PrintSpooler.SpoolJob job)
+    {
+        final PrintSpooler journal = spooler;
+        if (journal == null)
+            return (null);
+        byte[] payload;
+        try {
+            payload = job.readPayload();
+        } catch (IOException e) {
+            e.printStackTrace();
+            StatusReportCallback("Ticket not spooled: " + e.getMessage());
+            return (null);
+        }
+        TicketTracker.Ticket ticket = tickets.begin(new TicketTracker.Listener() {
+            @Override
+            public void TicketDone(TicketTracker.Ticket ticket, IOException error) {
+                try {
+                    if (error == null)
+                        journal.markAcknowledged(job);      //neither waits for the disk
+                    else
+                        journal.markFailed(job);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        if (ticket == null || ticket.isDone())
+            return (ticket);                        //the listener has marked the job failed
+        try {
+            journal.markSending(job);
+        } catch (IOException e) {
+            e.printStackTrace();
+            StatusReportCallback("Ticket not spooled: " + e.getMessage());
+            //the journal has failed for good, print anyway since the ticket already holds a window place
+        }
+        SendData(payload, false);                   //the payload already ends with any <p>
+        return (ticket);
+    }
+
+    //7.0 SendTicket for the commands built with an FGLBuilder
+    public Future<Boolean> SendTicket(FGLBuilder fgl, boolean FF)
+    {
+        return (SendTicket(fgl.sink(), FF));
+    }
+
+    //7.0 Tickets that may be sent before the oldest is answered, 4 by default.  1 waits for each ACK.
+    //A ticket with no answer within ackTimeoutMillis fails, 0 waits for an answer indefinitely.
+    public void SetTicketWindow(int window, long ackTimeoutMillis)
+    {
+        tickets.setWindow(window);
+        tickets.setAckTimeout(ackTimeoutMillis);
+    }
+
+    //7.0 The same, with how long SendTicket waits for room in a full window, 2000 ms by default.
+    //0 waits until a ticket is answered or times out, which can be the whole ACK timeout.
+    public void SetTicketWindow(int window, long ackTimeoutMillis, long windowWaitMillis)
+    {
+        SetTicketWindow(window, ackTimeoutMillis);
+        tickets.setWindowWait(windowWaitMillis);
+    }
+
+    //7.0 Tickets sent and not yet answered
+    public int GetTicketsInFlight()
+    {
+        return (tickets.getInFlight());
+    }
+
+    //7.0 Reopen the session by itself when it drops, instead of the application polling VerifyConnection.
+    //A drop is seen from a failed read or write or from the system's disconnect broadcast.  Attempts are
+    //spaced from initialDelayMillis doubling up to maxDelayMillis with random jitter, and are made at once
+    //when the system reports the link is back.  maxAttempts of 0 keeps trying until the session is closed.
+    //
+    //Data sent while reconnecting is held, up to SetHeldDataLimit bytes, and sent in order once the
+    //session is back.  So is Wi-Fi data that was queued but not yet written when the link dropped.
+    //Tickets waiting for an ACK fail with "Connection lost", they may or may not have printed.
+    public void SetAutoReconnect(boolean enabled, long initialDelayMillis, long maxDelayMillis, int maxAttempts)
+    {
+        autoReconnect = enabled;
+        reconnector.setBackoff(initialDelayMillis, maxDelayMillis, maxAttempts);
+        if (!enabled)
+            reconnector.stop();
+    }
+
+    //7.0 Most data held while reconnecting, 4MB by default.  Data beyond it is discarded.
+    public void SetHeldDataLimit(long bytes)
+    {
+        synchronized (held) {
+            maxHeldBytes = bytes;
+        }
+    }
+
+    //7.0 The listener is called from the thread that saw the change, not the main thread
+    public void SetConnectionListener(ConnectionListener listener)
+    {
+        connectionListener = listener;
+    }
+
+    //7.0 Status events decoded from the printer's replies on any transport.  Listeners are called after
+    //StatusReportCallback, which only gets USB status, on the main thread unless SetStatusExecutor gave
+    //another executor or null.
+    public void AddStatusListener(StatusListener listener)
+    {
+        statusListeners.addIfAbsent(listener);
+    }
+
+    public void RemoveStatusListener(StatusListener listener)
+    {
+        statusListeners.remove(listener);
+    }
+
+    //7.0 Status is decoded on an SDK thread, not the main thread.  StatusReportCallback and the status
+    //listeners are then called for it on the main thread by default, or on the executor given here.
+    //Null calls them straight from the SDK status thread, which takes nothing from the main thread
+    //but means they must not touch views.  Messages the SDK raises on its own threads, about
+    //reconnecting, held data or the USB read thread, are delivered the same way.  Other messages to
+    //StatusReportCallback come from the thread that called the SDK.
+    public void SetStatusExecutor(Executor executor)
+    {
+        statusExecutor = executor;
+    }
+
+    //7.0 Reconnect attempts made and time the last outage lasted, for monitoring
+    public long GetReconnectAttempts()
+    {
+        return (reconnector.getAttemptCount());
+    }
+
+    public long GetLastOutageMillis()
+    {
+        return (reconnector.getLastOutageNanos() / 1000000L);
+    }
+
     public void SendString(final String string)
     {
+        if (reconnecting && Hold(string.getBytes(StandardCharsets.ISO_8859_1)))   //7.0 sent once the session is back
+            return;
         //3.0 Added USB
         //3.0 Added WIFI
         //4.0 Switch
@@ -737,6 +1170,8 @@ public abstract class BocaSystemsSDK {
         //3.0 Added WIFI
         //4.0 Switch
         //6.1 Added FF boolean for WIFI
+        if (reconnecting && Hold(FF && Mode.equals("WIFI") ? WithFormFeed(buf) : buf))
+            return;                                 //7.0 sent once the session is back
         switch (Mode) {
             case "BT":
                 Write_BT_Data(buf);
@@ -753,6 +1188,36 @@ public abstract class BocaSystemsSDK {
         }
     }
 
+    //7.0 Send the bytes written to a ByteSink, such as a filled FGLTemplate ticket.  BT and USB write
+    //straight from the sink's array.  The sink may be reused as soon as this returns.
+    public void SendData(ByteSink sink, boolean FF)
+    {
+        if (reconnecting) {                         //7.0 held, so copied since the sink may be reused
+            SendData(sink.toByteArray(), FF);
+            return;
+        }
+        switch (Mode) {
+            case "BT":
+                mConnectedThreadBT.write(sink.array(), 0, sink.length());
+                break;
+            case "USB":
+                Write_USB_Data(sink.array(), 0, sink.length());
+                break;
+            case "WIFI":
+                Write_WIFI_Data(sink.toByteArray(), FF);        //sent later from another thread, needs its own copy
+                break;
+            default:
+                StatusReportCallback("Invalid Mode");
+                break;
+        }
+    }
+
+    //7.0 Send the commands built with an FGLBuilder
+    public void SendData(FGLBuilder fgl, boolean FF)
+    {
+        SendData(fgl.sink(), FF);
+    }
+
     public void ClearMemory() {
         byte[] CM;
         CM = new byte[2];
@@ -807,6 +1272,8 @@ public abstract class BocaSystemsSDK {
         private final BluetoothSocket mmSocket;
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
+        private volatile boolean lost = false;      //7.0 this connection failed, see LinkDropped
+        private final int generation = linkGeneration.get();   //7.0 see ConnectionLost(int)
 
         private ConnectedThreadBT(BluetoothSocket socket) {
             mmSocket = socket;
@@ -833,45 +1300,63 @@ public abstract class BocaSystemsSDK {
         public void run() {
             byte[] buffer = new byte[1024];        // buffer store for the stream
             int bytes;                            // bytes returned from read()
-            int x, y = 0;                        // used just to create a delay
             reading = true;
 
             // Keep listening to the InputStream until an exception occurs
+            //7.0 read blocks until the printer sends something, there is no delay loop between reads
             while (reading)
             {
                 try {
                     // Read from the InputStream
                     bytes = mmInStream.read(buffer);
-                    // Send the obtained bytes to the UI Activity
-                    mHandler.obtainMessage(MESSAGE_READ, bytes, -1, buffer).sendToTarget();
+                    if (bytes < 0) {
+                        Lost();                                 //7.0 printer closed the connection
+                        break;
+                    }
+                    if (bytes > 0) {
+                        flowControl.scan(buffer, 0, bytes);     //7.0 act on X-On/X-Off before the UI sees it
+                        tickets.scan(buffer, 0, bytes);         //7.0 complete tickets on ACK/NAK
+                        DispatchRead(buffer, bytes);            //7.0 Send the obtained bytes to the UI Activity
+                    }
                 } catch (IOException e) {
                     e.printStackTrace();
+                    Lost();                                     //7.0
                     break;
                 }
-
-                //Slight delay to allow incoming data to be handled.  Probably should be using
-                //a postDelayed command here, but I ran out of time before I figure it out.
-                //This delay loop is crude but works.  Should someone have a better way to do
-                //this, please email the modified code and I will update the example code on the web site for everyone.
-
-                //mHandler.postDelayed(mRunnable,100);
-                for (x = 0; x < 100000; x++) {
-                    y++;
-                }
-                y = 0;
             }
             //AppendStatus("Exiting Read Thread");
         }
 
         //Call this from the main Activity to send data to the remote device
-        private  void write(byte[] bytes) {
+        private boolean write(byte[] bytes) {
+            return (write(bytes, 0, bytes.length));
+        }
+
+        //7.0 send part of a byte array, FLOW_BLOCK bytes at a time so an X-Off can pause it.  If the link
+        //drops while reconnecting is on, the block that failed and the rest are held and sent once the
+        //session is back, so that block may reach the printer twice.  The array may be reused afterwards.
+        private boolean write(byte[] bytes, int offset, int length) {
+            int sent = 0;
             try {
-                mmOutStream.write(bytes);
+                for (; sent < length; sent += FLOW_BLOCK) {
+                    flowControl.await();
+                    mmOutStream.write(bytes, offset + sent, Math.min(FLOW_BLOCK, length - sent));
+                }
+                return (true);
             } catch (IOException e) {
                 e.printStackTrace();
+                if (Lost())                         //7.0
+                    Hold(Arrays.copyOfRange(bytes, offset + sent, offset + length));
+                return (false);
             }
         }
 
+        //7.0 Report this connection lost, see ConnectionLost
+        private boolean Lost() {
+            lost = true;
+            return (ConnectionLost(generation));
+        }
+
         //Call this from the main Activity to shutdown the connection
         public void cancel() {
             try {
@@ -895,12 +1380,14 @@ public abstract class BocaSystemsSDK {
             if(BluetoothDevice.ACTION_ACL_CONNECTED.equals(action)) //&& Global.tryBluetoothReconnect)
             {
                 VerifyConnection = true;
+                reconnector.wake();                 //7.0 printer is back, reconnect now
             }
 
             if(BluetoothDevice.ACTION_ACL_DISCONNECTED.equals(action)) //&& Global.tryBluetoothReconnect)
             {
                 VerifyConnection = false;
-                mHandler.sendEmptyMessage(DISCONNECTED);
+                if (!ConnectionLost())              //7.0
+                    mHandler.sendEmptyMessage(DISCONNECTED);
             }
 
         }
@@ -925,10 +1412,12 @@ public abstract class BocaSystemsSDK {
         context.registerReceiver(mBTReceiver, filter2);
 
         Mode = "BT";                                //Set communication mode flag for Bluetooth
+        flowControl.resume();                       //7.0 a new session starts unpaused
         connectionStatus = Open_BT(device);
         if (connectionStatus) {
             CurrentBTDevice = device;               //Store this for possible automatic reconnect in the case of a disconnect
             mContext = context;
+            SessionOpened(device);                  //7.0
         }
         else
             Mode = "";                              //Clear communication mode flag
@@ -996,8 +1485,10 @@ public abstract class BocaSystemsSDK {
 */
     public void CloseSessionBT()
     {
+        SessionClosing();                           //7.0 no reconnect after closing on purpose
         Close_BT();
         Mode = "";                                  //Clear communication mode flag
+        NotifyConnection(STATE_DISCONNECTED);       //7.0
 
     }
 
@@ -1039,6 +1530,7 @@ public abstract class BocaSystemsSDK {
     }
 
     private void Close_BT() {
+        tickets.cancelAll("Session closed");        //7.0
         try {
             btsocket.close();
             mHandler.sendEmptyMessage(DISCONNECTED);
@@ -1048,7 +1540,7 @@ public abstract class BocaSystemsSDK {
     }
 
     private void Write_BT(String command) {
-        mConnectedThreadBT.write(command.getBytes());
+        mConnectedThreadBT.write(command.getBytes(StandardCharsets.ISO_8859_1));     //7.0 one byte per char like Wi-Fi and held data
     }
 
     private void Write_BT_Data(byte[] buf) {
@@ -1088,6 +1580,9 @@ public abstract class BocaSystemsSDK {
         private final UsbDeviceConnection connection;
         private final UsbEndpoint mmInStream;
         private final UsbEndpoint mmOutStream;
+        private final UsbWriter usbWriter;          //7.0 pipelined bulk OUT transfers
+        private volatile boolean lost = false;      //7.0 this connection failed, see LinkDropped
+        private final int generation = linkGeneration.get();   //7.0 see ConnectionLost(int)
 
         private ConnectedThreadUSB(UsbDevice device)
         {
@@ -1120,6 +1615,7 @@ public abstract class BocaSystemsSDK {
 
             mmInStream = tmpIn;
             mmOutStream = tmpOut;
+            usbWriter = NewUsbWriter(connection, tmpOut);
         }
 
         //As a first timer Android Application writer, I think I have done a less than
@@ -1132,21 +1628,9 @@ public abstract class BocaSystemsSDK {
         //which was my main goal.
         public void run() {
             final int SIZE_BUFFER = 512;
-            final int TIMEOUT_SHORT = 50;
-            final int TIMEOUT_INFINITE = 0;
+            final int TIMEOUT = 500;                //7.0 ms, so reading is checked while the printer is quiet
             byte[] buffer = new byte[SIZE_BUFFER];
-            byte[] xfer = new byte[SIZE_BUFFER];
-            String statusReport = "";
-            int timeout = 500; // TIMEOUT_INFINITE;
-            int tries = 0;
-            int bytes = 0;
-            int xferLength = 0;
-            int i;
-            int j;
-            for (i = 0; i < SIZE_BUFFER; i++)
-            {
-                buffer[i] = 0x00;
-            }
+            int bytes;
             if (0 < readThreadCount)
             {
                 return;
@@ -1155,115 +1639,17 @@ public abstract class BocaSystemsSDK {
             reading = true;
 
             // Keep listening to the InputStream until an exception occurs
-            StatusReportCallback("Entering Read Thread");
+            ReportStatus("Entering Read Thread");          //7.0 not on this thread
             while (reading) {
-
-                for (i = 0; i < bytes; i++)
-                {
-                    buffer[i] = 0x00;
-                }
                 try {
-                    for (i = 0; i < bytes; i++)
-                    {
-                        buffer[i] = 0x00;
-                    }
                     // Read from the InputStream
-                    //bytes = mmInStream.read(buffer);
-                    // TEMP: ABR
-                    bytes = connection.bulkTransfer(mmInStream, buffer,0, SIZE_BUFFER, timeout);
+                    //7.0 status is decoded the same way as for Bluetooth and Wi-Fi, see StatusDecoder
+                    bytes = connection.bulkTransfer(mmInStream, buffer,0, SIZE_BUFFER, TIMEOUT);
                     if (0 < bytes)
                     {
-                        for (i = 0; i < bytes; i++)
-                        {
-                            switch (buffer[i])
-                            {
-                                case 6:
-                                    StatusReportCallback("Ticket ACK");
-                                    timeout = TIMEOUT_INFINITE;
-                                    Thread.sleep(100);
-                                    break;
-                                case 16:
-                                    StatusReportCallback("Out of Tickets");
-                                    timeout = TIMEOUT_INFINITE;
-                                    break;
-                                case 17:
-                                    StatusReportCallback("X-On");
-                                    timeout = TIMEOUT_INFINITE;
-                                    break;
-                                case 18:
-                                    StatusReportCallback("Power On");
-                                    timeout = TIMEOUT_INFINITE;
-                                    break;
-                                case 19:
-                                    StatusReportCallback("X-Off");
-                                    timeout = TIMEOUT_INFINITE;
-                                    break;
-                                case 21:
-                                    StatusReportCallback("Ticket NAK");
-                                    timeout = TIMEOUT_INFINITE;
-                                    break;
-                                case 24:
-                                    StatusReportCallback("Ticket Jam");
-                                    timeout = TIMEOUT_INFINITE;
-                                    break;
-                                case 25:
-                                    StatusReportCallback("Illegal Data");
-                                    timeout = TIMEOUT_INFINITE;
-                                    break;
-                                case 26:
-                                    StatusReportCallback("Power Up Problem");
-                                    timeout = TIMEOUT_INFINITE;
-                                    break;
-                                case 27:
-                                    StatusReportCallback("Ticket NAK");
-                                    timeout = TIMEOUT_INFINITE;
-                                    break;
-                                case 28:
-                                    StatusReportCallback("Downloading Error");
-                                    timeout = TIMEOUT_INFINITE;
-                                    break;
-                                case 29:
-                                    StatusReportCallback("Cutter Jam");
-                                    break;
-                                case 0x0D:
-                                case 0x0A:
-                                    if (0 < statusReport.length()) {
-                                        StatusReportCallback(statusReport);
-                                        timeout = TIMEOUT_INFINITE;
-                                        // StatusReturned = StatusReturned + statusReport;
-                                    }
-                                    tries = 0;
-                                    statusReport = "";
-                                default:
-                                    statusReport += (char)buffer[i];
-                                    timeout = TIMEOUT_SHORT;
-                                    tries = 0;
-                                    break;
-                            }
-                        }
-                    }
-                    else if (TIMEOUT_SHORT == timeout && 0 < statusReport.length()) {
-                        if (0 == bytes) {
-                            // This section is only for status reports
-                            // that do not come with a trailing "\r"
-                            if (1 < tries++) {
-                                StatusReportCallback(statusReport);
-                                // StatusReturned = StatusReturned + statusReport;
-                                timeout = TIMEOUT_INFINITE;
-                                tries = 0;
-                                statusReport = "";
-                            }
-                        } else if (0 > bytes) {
-                            // statusReport += String.format("\r\nTransmission Error : %d", bytes);
-                            if (3 < tries++)
-                            {
-                                StatusReportCallback(statusReport);
-                                // StatusReturned = StatusReturned + statusReport;
-                                timeout = TIMEOUT_INFINITE;
-                                tries = 0;
-                                statusReport = "";
-                            }
-                        }
+                        flowControl.scan(buffer, 0, bytes);     //7.0 act on X-On/X-Off before the UI sees it
+                        tickets.scan(buffer, 0, bytes);         //7.0 complete tickets on ACK/NAK
+                        DispatchRead(buffer, bytes);            //7.0
                     }
                 } catch (Exception e) {
                     // reading = false;
@@ -1271,76 +1657,73 @@ public abstract class BocaSystemsSDK {
                 }
             }
             //AppendStatus("Exiting Read Thread");
-            StatusReportCallback("Exiting Read Thread");
+            ReportStatus("Exiting Read Thread");           //7.0
             readThreadCount--;
         }
 
         //3.0 Added USB Support
         //Call this to send data out the USB port to the remote device
-        private void write(final byte[] bytes) {
-
-            int TIMEOUT = 0;                            //4.0 made this a local
-            int EachTransfer = 0;                       //amount transfered each time
-            int TotalTransfered = 0;                    //running total of amount of data transfered
-            int TotalToBeTransfered = bytes.length;     //Grand total target
-            int LeftToBeTransfered = bytes.length;      //Count down from grand total to zero
-            int MaxTransfer = 16384;                     //maximum block size per USB transfer
-            boolean GottaTransfer = true;               //control loop
-            int FailureCount = 0;
-            if (0 == bytes.length)
+        private boolean write(final byte[] bytes) {
+            return (write(bytes, 0, bytes.length));
+        }
+
+        //7.0 send length bytes of the array starting at offset.  Up to USB_DEPTH transfers are in flight
+        //at once, see UsbWriter, instead of one synchronous bulkTransfer at a time.  Their size is tuned
+        //from the endpoint's packet size and the measured throughput, see ChunkTuner.
+        //The bytes a failed or short transfer did not send are sent again with a growing pause, and the
+        //connection is treated as lost once the retries run out.  While reconnecting is on, the bytes not
+        //confirmed are then held and sent once the session is back.  The array may be reused afterwards.
+        private boolean write(final byte[] bytes, int offset, int length) {
+            if (0 == length)
             {
-                return;
+                return (true);
+            }
+            if (usbWriter == null)
+            {
+                return (false);
             }
-
-            //When sending large amounts of data through the USB port, it must be subdivided into 16384 byte
-            //blocks so a loop is used to repeatedly perform bulk transfers at the max size
-            //until all the data has been transmitted.
             try
             {
-                //Continue as long as we have something to transfer
-                while (GottaTransfer)
+                if (!usbWriter.write(bytes, offset, length))
                 {
-                    //if the data left to transfer is smaller than the maximum block size allowable, use the
-                    //actual amount otherwise use the maximum block size of 16384 bytes.
-                    if (LeftToBeTransfered < MaxTransfer)
-                        MaxTransfer = LeftToBeTransfered;
-
-                    //Perform transfer and look at each transfer return value to determine success/failure.
-                    //if the value returned is less than 0, then the transfer failed.
-                    EachTransfer = connection.bulkTransfer(mmOutStream, bytes, TotalTransfered, MaxTransfer, TIMEOUT);
-
-                    //if less than 0 - failure
-                    if (EachTransfer < 0)
-                    {
-                        //Issue write failed message but try again, up to 10 times total
-                        mHandler.obtainMessage(WRITE_FAILED).sendToTarget();
-                        FailureCount++;
-                        if (20 < FailureCount)
-                            GottaTransfer = false;
-                    }
-                    else
-                    //recalculate how much is left to be transferred by adding each transfer up
-                    //and subtracting from the grand total in the beginning.  Also use the total
-                    //transfered value as the offset index for the next bulk transfer above.
-                    {
-                        TotalTransfered += EachTransfer;
-                        LeftToBeTransfered = TotalToBeTransfered - TotalTransfered;
-                        //if finished, reset the flag to exit while loop
-                        if (LeftToBeTransfered <= 0)
-                            GottaTransfer = false;
-                    }
+                    mHandler.obtainMessage(WRITE_FAILED_ABORT).sendToTarget();
+                    lost = true;
+                    if (ConnectionLost(generation))
+                        Hold(Arrays.copyOfRange(bytes, offset + usbWriter.getConfirmed(), offset + length));
+                    return (false);
                 }
-
+                return (true);
             }
             catch (Exception e)
             {
                 //Exception fault, issue message and abort transfer
                 mHandler.obtainMessage(WRITE_FAILED_ABORT).sendToTarget();
-                GottaTransfer = false;
+                lost = true;
+                if (ConnectionLost(generation))         //no telling what was sent, hold all of it
+                    Hold(Arrays.copyOfRange(bytes, offset, offset + length));
+                return (false);
             }
         }
 
+        private void close() {
+            if (usbWriter != null)
+                usbWriter.close();
+            connection.close();
+        }
+    }
 
+    //7.0 UsbRequest based writer, or synchronous bulkTransfer one at a time if requests cannot be set up.
+    //Transfers are whole multiples of the endpoint's max packet size.
+    private UsbWriter NewUsbWriter(UsbDeviceConnection connection, UsbEndpoint endpoint) {
+        if (connection == null || endpoint == null)
+            return (null);
+        ChunkTuner tuner = new ChunkTuner(endpoint.getMaxPacketSize(), USB_MIN_CHUNK, USB_CHUNK);
+        try {
+            return (new UsbWriter(new UsbWriter.RequestBus(connection, endpoint, USB_DEPTH), USB_DEPTH, tuner, flowControl));
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+            return (new UsbWriter(new UsbWriter.TransferBus(connection, endpoint, tuner.maxChunk()), 1, tuner, flowControl));
+        }
     }
 
 
@@ -1377,6 +1760,7 @@ public abstract class BocaSystemsSDK {
                 if (device != null)
                 {
                     VerifyConnection = true;
+                    reconnector.wake();             //7.0 printer is back, reconnect now
                 }
             }
 
@@ -1386,6 +1770,7 @@ public abstract class BocaSystemsSDK {
                 if (device != null)
                 {
                     VerifyConnection = false;
+                    ConnectionLost();               //7.0
                 }
             }
 
@@ -1421,11 +1806,13 @@ public abstract class BocaSystemsSDK {
         context.registerReceiver(mUsbReceiver, filter3);
 
         Mode = "USB";                            //Set communication mode flag for USB Port
+        flowControl.resume();                       //7.0 a new session starts unpaused
         connectionStatus = Open_USB();
         VerifyConnection = connectionStatus;
 
         if (connectionStatus) {
             mContext = context;
+            SessionOpened("");                      //7.0
         }
         else
             Mode = "";                            //Clear communication mode flag
@@ -1435,8 +1822,10 @@ public abstract class BocaSystemsSDK {
 
     public void CloseSessionUSB()
     {
+        SessionClosing();                       //7.0 no reconnect after closing on purpose
         Close_USB();
         Mode = "";                              //Clear communication mode flag
+        NotifyConnection(STATE_DISCONNECTED);   //7.0
 
     }
 
@@ -1484,12 +1873,13 @@ public abstract class BocaSystemsSDK {
     //3.0 Added USB
     private void Close_USB()
     {
+        tickets.cancelAll("Session closed");        //7.0
         try
         {
             reading = false;
             mConnectedThreadUSB.connection.releaseInterface(interfaceIn);
             mConnectedThreadUSB.connection.releaseInterface(interfaceOut);
-            mConnectedThreadUSB.connection.close();
+            mConnectedThreadUSB.close();
         }
         catch(Exception ex)
         {
@@ -1500,13 +1890,23 @@ public abstract class BocaSystemsSDK {
     //3.0 Added USB
     private void Write_USB(final String command)
     {
-        mConnectedThreadUSB.write(command.getBytes());
+        Write_USB_Data(command.getBytes(StandardCharsets.ISO_8859_1));     //7.0 one byte per char like Wi-Fi and held data
     }
 
     //3.0 Added USB
     private void Write_USB_Data(final byte[] buf)
     {
-        mConnectedThreadUSB.write(buf);
+        Write_USB_Data(buf, 0, buf.length);
+    }
+
+    //7.0 There is no connection between a reconnect releasing it and opening it again, hold the data then
+    private void Write_USB_Data(final byte[] buf, int offset, int length)
+    {
+        ConnectedThreadUSB usb = mConnectedThreadUSB;
+        if (usb != null)
+            usb.write(buf, offset, length);
+        else if (ConnectionLost())
+            Hold(Arrays.copyOfRange(buf, offset, offset + length));
     }
 
     //3.0 Added USB
@@ -1696,21 +2096,24 @@ public abstract class BocaSystemsSDK {
     public class ConnectedThreadWIFI extends Thread {
 
         private final InputStreamReader mmInStream;
-        private final OutputStreamWriter mmOutStream;
+        private final OutputStream mmOutStream;
+        private volatile boolean lost = false;      //7.0 this connection failed, see LinkDropped
+        private final int generation = linkGeneration.get();   //7.0 see ConnectionLost(int)
 
         private ConnectedThreadWIFI(Socket client) {
 
             // Get the input and output streams, using temp objects because
             // member streams are final
             try {
-                printwriter = new OutputStreamWriter(client.getOutputStream(), "ISO-8859-1");
+                printstream = new BufferedOutputStream(client.getOutputStream(), STREAM_CHUNK);     //7.0 raw bytes
                 printreader = new InputStreamReader(client.getInputStream(), "ISO-8859-1");
+                wifiWriter = new WifiWriter(printstream, WIFI_QUEUE, flowControl);        //7.0
             } catch (IOException e) {
                 e.printStackTrace();        //4.0
             }
 
             mmInStream = printreader;
-            mmOutStream = printwriter;
+            mmOutStream = printstream;
         }
 
         //As a first timer Android Application writer, I think I have done a less than
@@ -1720,42 +2123,40 @@ public abstract class BocaSystemsSDK {
         public void run() {
             char[] buffer = new char[1024];        // buffer store for the stream
             int bytes = 0;                            // bytes returned from read()
-            int x = 0, y = 0;                        // used just to create a delay
             reading = true;
 
             // Keep listening to the InputStream until an exception occurs
+            //7.0 read blocks until the printer sends something, there is no delay loop between reads
             while (reading) {
                 try {
                     // Read from the InputStream
                     bytes = mmInStream.read(buffer);
-                    // Send the obtained bytes to the UI Activity
-                    mHandler.obtainMessage(MESSAGE_READ, bytes, -1, buffer).sendToTarget();
+                    if (bytes < 0) {
+                        lost = true;
+                        ConnectionLost(generation);             //7.0 printer closed the connection
+                        break;
+                    }
+                    if (bytes > 0) {
+                        flowControl.scan(buffer, 0, bytes);     //7.0 act on X-On/X-Off before the UI sees it
+                        tickets.scan(buffer, 0, bytes);         //7.0 complete tickets on ACK/NAK
+                        DispatchRead(buffer, bytes);            //7.0 Send the obtained bytes to the UI Activity
+                    }
                 } catch (IOException e) {
                     e.printStackTrace();        //4.0
+                    lost = true;
+                    ConnectionLost(generation);                 //7.0
                     break;
                 }
-
-                //Slight delay to allow incoming data to be handled.  Probably should be using
-                //a postDelayed command here, but I ran out of time before I figure it out.
-                //This delay loop is crude but works.  Should someone have a better way to do
-                //this, please email the modified code and I will update the example code on the web site for everyone.
-                //4.0 look at this
-                //mHandler.postDelayed(mRunnable,100);
-                for (x = 0; x < 100000; x++) {
-                    y++;
-                }
-                y = 0;
             }
             //AppendStatus("Exiting Read Thread");
         }
 
         //Call this from the main Activity to send data to the remote device
-        public void write(char[] bytes) {
-            try {
-                mmOutStream.write(bytes);
-            } catch (IOException e) {
-                e.printStackTrace();        //4.0
-            }
+        //7.0 bytes are queued to the session writer thread, so the array must not change afterwards
+        private void write(byte[] bytes, int offset, int length) {
+            WifiWriter writer = wifiWriter;
+            if (writer != null && !writer.write(bytes, offset, length, false) && ConnectionLost(generation))
+                Hold(Arrays.copyOfRange(bytes, offset, offset + length));      //7.0 writer failed, hold it
         }
 
         //Call this from the main Activity to shutdown the connection
@@ -1786,6 +2187,8 @@ public abstract class BocaSystemsSDK {
                 if (netInfo != null)                            //4.0
                     isWifiConn = netInfo.isConnected();         //4.0
                 VerifyConnection = isWifiConn;
+                if (isWifiConn)
+                    reconnector.wake();                         //7.0 network is back, reconnect now
             }
 
             if (ConnectivityManager.EXTRA_NO_CONNECTIVITY.equals(action)) {
@@ -1807,6 +2210,34 @@ public abstract class BocaSystemsSDK {
         }
     };
 
+    //7.0 Reads and drops of the session's selector connection, on the selector thread.  A connection that
+    //is no longer the session's, because it was closed or released, is ignored, and so is a connect that
+    //never finished, Open_WIFI_Selector reports that.
+    private final WifiSelector.Listener wifiListener = new WifiSelector.Listener() {
+        @Override
+        public void onConnected(WifiSelector.Connection connection) {
+        }
+
+        @Override
+        public void onRead(WifiSelector.Connection connection, ByteBuffer data) {
+            if (connection != wifiConnection)
+                return;
+            while (data.hasRemaining()) {
+                int count = Math.min(wifiRead.length, data.remaining());
+                data.get(wifiRead, 0, count);
+                flowControl.scan(wifiRead, 0, count);       //the selector checks the gate after each read
+                tickets.scan(wifiRead, 0, count);
+                DispatchRead(wifiRead, count);
+            }
+        }
+
+        @Override
+        public void onClosed(WifiSelector.Connection connection, IOException error) {
+            if (connection == wifiConnection && connection.isConnected())
+                ConnectionLost();                           //printer closed the connection or it failed
+        }
+    };
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
     //WiFi SDK SECTION
@@ -1880,26 +2311,17 @@ public abstract class BocaSystemsSDK {
         context.registerReceiver(mWIFIReceiver, filter4);
 
         Mode = "WIFI";                              //Set communication mode for Wi-Fi
-        WifiProcessing = true;
+        flowControl.resume();                       //7.0 a new session starts unpaused
         //establish client and open port 9100 based on IP Address
-        Open_WIFI(ipAddress);
-
-        //wait here while wifi attempting to connect. Wifi connection attempt runs in background
-        //on a seperate thread
-        while(WifiProcessing)
-        {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        Open_WIFI(ipAddress);                       //7.0 returns as soon as the connect finishes
 
         VerifyConnection = connectionStatus;
 
         //if connection failed clear Mode
-        if(connectionStatus)
+        if(connectionStatus) {
             mContext = context;
+            SessionOpened(ipAddress);               //7.0
+        }
         else
             Mode = "";                              //Clear communication flag
 
@@ -1907,8 +2329,10 @@ public abstract class BocaSystemsSDK {
     }
 
     public void CloseSessionWIFI() {
+        SessionClosing();                       //7.0 no reconnect after closing on purpose
         Close_WIFI();
         Mode = "";                              //Clear communication mode
+        NotifyConnection(STATE_DISCONNECTED);   //7.0
 
     }
 
@@ -1917,142 +2341,509 @@ public abstract class BocaSystemsSDK {
         return(VerifyConnection);       //4.0 simplified
     }
 
+    //7.0 TCP port used by OpenSessionWIFI, 9100 unless changed.  Lets a session be opened to a
+    //printer emulator or a print server listening on another port.
+    public void SetPortWIFI(int port)
+    {
+        portNumber = port;
+    }
+
+    //7.0 Run the Wi-Fi session on a shared WifiSelector instead of its own socket, read thread and writer
+    //thread, so one thread serves every printer.  Used from the next OpenSessionWIFI on; null goes back
+    //to a socket per session.  PrinterManager gives all of its sessions one selector.
+    public void SetWifiSelector(WifiSelector selector)
+    {
+        wifiSelector = selector;
+    }
+
+    //7.0 ms allowed for the Wi-Fi TCP connect before OpenSessionWIFI gives up, 5 seconds by default.
+    //Bluetooth uses the system's own connect timeout.
+    public void SetConnectTimeout(int millis)
+    {
+        connectTimeout = millis;
+    }
+
+    //7.0 Open a session without blocking the caller.  The Future completes with the same result as
+    //OpenSessionBT, OpenSessionUSB or OpenSessionWIFI as soon as the connect finishes, so many printers
+    //can reconnect at once without a thread waiting on each.
+    public Future<Boolean> OpenSessionBTAsync(final String device, final Context context)
+    {
+        return (OpenAsync(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return (OpenSessionBT(device, context));
+            }
+        }));
+    }
+
+    public Future<Boolean> OpenSessionUSBAsync(final Context context)
+    {
+        return (OpenAsync(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return (OpenSessionUSB(context));
+            }
+        }));
+    }
+
+    public Future<Boolean> OpenSessionWIFIAsync(final String ipAddress, final Context context)
+    {
+        return (OpenAsync(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return (OpenSessionWIFI(ipAddress, context));
+            }
+        }));
+    }
+
+    private Future<Boolean> OpenAsync(Callable<Boolean> open)
+    {
+        FutureTask<Boolean> task = new FutureTask<Boolean>(open);
+        Thread thread = new Thread(task, "BocaOpenSession");
+        thread.setDaemon(true);
+        thread.start();
+        return (task);
+    }
+
     //3.0 Added WIFI
+    //7.0 Network calls are not allowed on the main thread, so from there the connect runs on its own
+    //thread and this waits for it to finish instead of polling once a second.  Other threads, such as
+    //OpenSessionWIFIAsync, connect directly.  The connect is limited to connectTimeout.
     private void Open_WIFI(final String ipAddress) {
 
         connectionStatus = false;
 
         //Trigger Connecting message to set Wifi processing flag
         //mHandler.sendEmptyMessage(CONNECTING);
-        new Thread(new Runnable() {
+        Runnable connect = new Runnable() {
 
             @Override
             public void run() {
-                // TODO Auto-generated method stub
-                try {
-                    client = new Socket(ipAddress, portNumber);
-
-                    if(client == null) {
-                        //mHandler.sendEmptyMessage(CONNECTION_FAILED);
-                        WifiProcessing = false;
-                    }
-                    else {
-                        // Start the thread to manage the connection and perform transmissions
-                        mConnectedThreadWIFI = new ConnectedThreadWIFI(client);
-                        mConnectedThreadWIFI.start();
-                        //mHandler.sendEmptyMessage(CONNECTION_SUCCESSFUL);
-                        connectionStatus = true;
-                        WifiProcessing = false;
-                    }
-
+                WifiSelector selector = wifiSelector;
+                if (selector != null) {
+                    Open_WIFI_Selector(selector, ipAddress);        //7.0
+                    return;
                 }
+                Socket socket = new Socket();
+                try {
+                    socket.connect(new InetSocketAddress(ipAddress, portNumber), connectTimeout);
+                    client = socket;
 
-                catch (UnknownHostException e) {
-                    e.printStackTrace();
-                    //mHandler.sendEmptyMessage(CONNECTION_FAILED);
-                    WifiProcessing = false;
+                    // Start the thread to manage the connection and perform transmissions
+                    mConnectedThreadWIFI = new ConnectedThreadWIFI(client);
+                    mConnectedThreadWIFI.start();
+                    //mHandler.sendEmptyMessage(CONNECTION_SUCCESSFUL);
+                    connectionStatus = true;
                 } catch (IOException e) {
                     e.printStackTrace();
                     //mHandler.sendEmptyMessage(CONNECTION_FAILED);
-                    WifiProcessing = false;
-
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                        //not connected
+                    }
                 }
-                WifiProcessing = false;
             }
-        }).start();
+        };
+
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            connect.run();
+            return;
+        }
+        Thread thread = new Thread(connect, "BocaWifiConnect");
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    //7.0 Connect through the shared selector, limited to connectTimeout the same as the socket connect
+    private void Open_WIFI_Selector(WifiSelector selector, String ipAddress) {
+        try {
+            WifiSelector.Connection connection = selector.connect(new InetSocketAddress(ipAddress, portNumber),
+                    wifiListener, flowControl);
+            wifiConnection = connection;            //before it connects, so no read is missed
+            if (connection.awaitConnected(connectTimeout)) {
+                connectionStatus = true;
+                return;
+            }
+            wifiConnection = null;
+            connection.abort();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //3.0 Added WIFI
+    private void Close_WIFI()
+    {
+        tickets.cancelAll("Session closed");        //7.0
+        try {
+            WifiSelector.Connection connection = wifiConnection;
+            if(connection != null) {                //7.0 send what is still queued first
+                wifiConnection = null;              //so its close is not taken for a drop
+                if(connection.flush(WIFI_CLOSE_WAIT))
+                    connection.close();
+                else
+                    connection.abort();
+            }
+            if(wifiWriter != null) {                //7.0 send what is still queued first
+                wifiWriter.close(WIFI_CLOSE_WAIT);
+                wifiWriter = null;
+            }
+            if(printstream != null)
+                printstream.close();
+            if(printreader != null)
+                printreader.close();
+            if(client != null)
+                client.close();
+            mHandler.sendEmptyMessage(DISCONNECTED);
+        }
+
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+
+    }
+
+    //3.0 Added WIFI
+    private void Write_WIFI(final String command)
+    {
+        //4.0 place TCP Client into background thread
+        //7.0 queued to the session writer thread so writes go out in the order they were made
+        WifiSelector.Connection connection = wifiConnection;
+        if(connection != null) {
+            byte[] bytes = command.getBytes(StandardCharsets.ISO_8859_1);
+            if(!connection.write(bytes, 0, bytes.length, false) && ConnectionLost())
+                Hold(bytes);
+            return;
+        }
+        WifiWriter writer = wifiWriter;
+        if(writer != null && !writer.write(command) && ConnectionLost())    //7.0 writer failed, hold it
+            Hold(command.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    //3.0 Added WIFI
+    //4.0 No longer pass character array.  Pass byte array and convert it here
+    //4.0 See SendData above
+    //4.0 private void Write_WIFI_Data(final char[] buf)
+    private void Write_WIFI_Data(final byte[] buf, final boolean FF)              //4.0
+    {
+        //4.0 place TCP Client into background thread
+        //7.0 queued to the session writer thread, which adds the <p> when FF is set (6.1)
+        WifiSelector.Connection connection = wifiConnection;
+        if(connection != null) {
+            if(!connection.write(buf, 0, buf.length, FF) && ConnectionLost())
+                Hold(FF ? WithFormFeed(buf) : buf);
+            return;
+        }
+        WifiWriter writer = wifiWriter;
+        if(writer != null && !writer.write(buf, 0, buf.length, FF) && ConnectionLost())    //7.0 writer failed, hold it
+            Hold(FF ? WithFormFeed(buf) : buf);
+    }
+
+    //7.0 The first length bytes of a chunk the caller reuses.  The selector copies what it queues, the
+    //writer thread needs its own copy.
+    private void Write_WIFI_Data(byte[] chunk, int length)
+    {
+        WifiSelector.Connection connection = wifiConnection;
+        if(connection != null) {
+            if(!connection.write(chunk, 0, length) && ConnectionLost())
+                Hold(Arrays.copyOf(chunk, length));
+        }
+        else if(mConnectedThreadWIFI != null) {
+            mConnectedThreadWIFI.write(Arrays.copyOf(chunk, length), 0, length);
+        }
+    }
+
+    //7.0 Wait until everything sent to the Wi-Fi printer so far has been written to the socket.
+    //Returns false on timeout or if the connection failed.
+    public boolean FlushWIFI(long timeoutMillis)
+    {
+        WifiSelector.Connection connection = wifiConnection;
+        if(connection != null)
+            return (connection.flush(timeoutMillis));
+        if(wifiWriter == null)
+            return (false);
+        return (wifiWriter.flush(timeoutMillis));
+    }
+
+    //3.0 Added WIFI
+    private String Read_WIFI() {
+        return (StatusReturned);
+    }
+
+    //3.0 Added WIFI
+    private void ClearStatus_WIFI() {
+        StatusReturned = "";
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //RECONNECT SUPPORT FUNCTIONS SECTION                                                       //7.0
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void SessionOpened(String target)
+    {
+        reconnectTarget = target;
+        sessionOpen = true;
+        NotifyConnection(STATE_CONNECTED);
+    }
+
+    //Stop any reconnect and drop held data before a session is closed on purpose
+    private void SessionClosing()
+    {
+        sessionOpen = false;
+        reconnector.stop();
+        linkGeneration.incrementAndGet();           //losses the closed transport reports later are not drops
+        synchronized (held) {
+            reconnecting = false;
+            if (!held.isEmpty())
+                ReportStatus("Session closed, held data discarded");
+            held.clear();
+            heldBytes = 0;
+        }
+    }
+
+    //A read or write failed or the system reported the link down.  Returns true if the session is being
+    //reconnected, false if auto reconnect is off or the session was closed on purpose.
+    private boolean ConnectionLost()
+    {
+        if (!autoReconnect || !sessionOpen)
+            return (false);
+        synchronized (held) {
+            if (reconnecting)
+                return (true);
+            reconnecting = true;
+        }
+        tickets.cancelAll("Connection lost");
+        NotifyConnection(STATE_RECONNECTING);
+        reconnector.start();
+        return (true);
+    }
+
+    //The same for a loss reported by a transport's own thread.  A transport released by a reconnect or
+    //a close may report its loss after that, even after the session is back; generation is the one it
+    //was opened in, and such a stale report does not start another reconnect.
+    private boolean ConnectionLost(int generation)
+    {
+        if (generation != linkGeneration.get())
+            return (reconnecting);
+        return (ConnectionLost());
+    }
+
+    //While reconnecting, keep data to send once the session is back.  Returns true if the data was taken,
+    //held or discarded because the held data limit was reached.
+    private boolean Hold(byte[] data)
+    {
+        synchronized (held) {
+            if (!reconnecting)
+                return (false);
+            if (heldBytes + data.length > maxHeldBytes) {
+                ReportStatus("Held data limit reached, data discarded");
+                return (true);
+            }
+            held.add(data);
+            heldBytes += data.length;
+            return (true);
+        }
+    }
+
+    private static byte[] WithFormFeed(byte[] buf)
+    {
+        byte[] data = Arrays.copyOf(buf, buf.length + 3);
+        data[buf.length] = '<';
+        data[buf.length + 1] = 'p';
+        data[buf.length + 2] = '>';
+        return (data);
+    }
 
-        //4.0 return;
+    //Reconnect thread: release the dropped transport and open it again to the same printer
+    private boolean ReopenSession()
+    {
+        String mode = Mode;
+        if (!sessionOpen)
+            return (false);
+        Release(mode);
+
+        boolean open;
+        switch (mode) {
+            case "BT":
+                open = Open_BT(reconnectTarget);
+                break;
+            case "USB":
+                //Open_USB is also true when it only asked for permission, the grant opens it later
+                open = Open_USB() && mConnectedThreadUSB != null && mConnectedThreadUSB.usbWriter != null;
+                break;
+            case "WIFI":
+                Open_WIFI(reconnectTarget);
+                open = connectionStatus;
+                break;
+            default:
+                return (false);
+        }
+        if (open && !sessionOpen) {
+            Release(mode);                          //closed while connecting
+            return (false);
+        }
+        if (open) {
+            flowControl.resume();
+            connected = true;
+            VerifyConnection = true;
+        }
+        return (open);
     }
 
-
-    //3.0 Added WIFI
-    private void Close_WIFI()
+    //Close the dropped transport without the DISCONNECTED message, which would stop the new read thread
+    private void Release(String mode)
     {
+        linkGeneration.incrementAndGet();           //see ConnectionLost(int)
         try {
-            if(printwriter != null)
-                printwriter.close();
-            if(printreader != null)
-                printreader.close();
-            if(client != null)
-                client.close();
-            mHandler.sendEmptyMessage(DISCONNECTED);
-        }
-
-        catch (IOException e) {
+            switch (mode) {
+                case "BT":
+                    if (btsocket != null)
+                        btsocket.close();
+                    break;
+                case "USB":
+                    reading = false;
+                    ConnectedThreadUSB usb = mConnectedThreadUSB;
+                    mConnectedThreadUSB = null;         //so a reopen that opens nothing is not taken for one
+                    if (usb != null) {
+                        usb.connection.releaseInterface(interfaceIn);
+                        usb.connection.releaseInterface(interfaceOut);
+                        usb.close();
+                    }
+                    //the new read thread will not start while the old one is still running
+                    for (int wait = 0; wait < 100 && 0 < readThreadCount; wait++)
+                        Thread.sleep(10);
+                    break;
+                case "WIFI":
+                    WifiSelector.Connection connection = wifiConnection;
+                    wifiConnection = null;              //so its close is not taken for another drop
+                    if (connection != null) {
+                        connection.abort();             //everything still queued is kept
+                        HoldFirst(connection.takeUnsent());
+                    }
+                    if (client != null)
+                        client.close();             //first, so the writer thread is not stuck writing to it
+                    WifiWriter writer = wifiWriter;
+                    if (writer != null) {
+                        writer.abort(WIFI_CLOSE_WAIT);      //everything still queued is kept
+                        HoldFirst(writer.takeUnsent());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
             e.printStackTrace();
         }
-
     }
 
-    //3.0 Added WIFI
-    private void Write_WIFI(final String command)
+    //Writes a dropped transport had queued but not sent.  They are older than anything held since the
+    //drop, so they go first.
+    private void HoldFirst(List<byte[]> unsent)
     {
-        //4.0 place TCP Client into background thread
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                if(printwriter != null)
-                {
-                    try
-                    {
-                        printwriter.write(command);
-                        printwriter.flush();
-                    }
-                    catch (IOException e)
-                    {
-                        e.printStackTrace();
-                    }
-                }
+        synchronized (held) {
+            for (int i = unsent.size() - 1; i >= 0; i--) {
+                held.addFirst(unsent.get(i));
+                heldBytes += unsent.get(i).length;
             }
-        };
-        Thread thread = new Thread(runnable);
-        thread.start();
+        }
     }
 
-    //3.0 Added WIFI
-    //4.0 No longer pass character array.  Pass byte array and convert it here
-    //4.0 See SendData above
-    //4.0 private void Write_WIFI_Data(final char[] buf)
-    private void Write_WIFI_Data(final byte[] buf, final boolean FF)              //4.0
+    //Reconnect thread: send the held data in order, then let new sends through.  reconnecting stays on
+    //while the held data is replayed, so sends made meanwhile are held behind it instead of overtaking
+    //it.  Each piece is taken under the lock and written outside it, so those sends do not wait for the
+    //writes.  reconnecting is only cleared, under the lock, once held is empty.
+    private void ReconnectFinished(boolean reconnected)
     {
-        //4.0 place TCP Client into background thread
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                if(printwriter != null)
-                {
-                    try {
-                        //4.0 must now convert byte array to string using correct charset
-                        //4.0 name and then convert string to char array
-                        String text1 = new String(buf, "ISO-8859-1");  //"UTF-8");
-                        if(FF)      //6.1
-                        {
-                            text1 = text1 + "<p>";
-                        }
-                        char[] chars = text1.toCharArray();
-                        //4.0 printwriter.write(buf);
-                        printwriter.write(chars);           //4.0
-                        printwriter.flush();
-                    }
-                    catch (IOException e)
-                    {
-                        e.printStackTrace();
+        if (reconnected) {
+            while (sessionOpen && !LinkDropped()) {
+                byte[] data;
+                synchronized (held) {
+                    data = held.poll();
+                    if (data == null) {
+                        reconnecting = false;
+                        heldBytes = 0;
+                        break;
                     }
+                    heldBytes -= data.length;
                 }
+                Transmit(data);                     //data that fails is held again by the write path
             }
-        };
-        Thread thread = new Thread(runnable);
-        thread.start();
+            if (reconnecting && sessionOpen) {
+                reconnector.start();                //dropped again while reopening or sending the held data
+                return;
+            }
+        }
+        else {
+            synchronized (held) {
+                if (!held.isEmpty())
+                    ReportStatus("Connection not restored, held data discarded");
+                reconnecting = false;
+                held.clear();
+                heldBytes = 0;
+            }
+        }
+        if (reconnected) {
+            NotifyConnection(STATE_CONNECTED);
+        } else if (sessionOpen) {
+            sessionOpen = false;                    //gave up
+            Mode = "";
+            connected = false;
+            VerifyConnection = false;
+            NotifyConnection(STATE_DISCONNECTED);
+        }
     }
 
-    //3.0 Added WIFI
-    private String Read_WIFI() {
-        return (StatusReturned);
+    //The reopened connection has failed already.  A drop reported while reconnecting does not start
+    //another reconnect, so it is looked for here before the session is reported connected.
+    private boolean LinkDropped()
+    {
+        switch (Mode) {
+            case "BT":
+                return (mConnectedThreadBT == null || mConnectedThreadBT.lost);
+            case "USB":
+                return (mConnectedThreadUSB == null || mConnectedThreadUSB.lost);
+            case "WIFI":
+                WifiSelector.Connection connection = wifiConnection;
+                if (connection != null)
+                    return (connection.isClosed());
+                WifiWriter writer = wifiWriter;
+                return (mConnectedThreadWIFI == null || mConnectedThreadWIFI.lost
+                        || writer == null || writer.getError() != null);
+            default:
+                return (false);
+        }
     }
 
-    //3.0 Added WIFI
-    private void ClearStatus_WIFI() {
-        StatusReturned = "";
+    //Write to the open transport without holding
+    private void Transmit(byte[] data)
+    {
+        switch (Mode) {
+            case "BT":
+                Write_BT_Data(data);
+                break;
+            case "USB":
+                Write_USB_Data(data);
+                break;
+            case "WIFI":
+                Write_WIFI_Data(data, false);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void NotifyConnection(int state)
+    {
+        ConnectionListener listener = connectionListener;
+        if (listener != null)
+            listener.ConnectionStateChanged(state);
     }
 
 
@@ -2060,6 +2851,86 @@ public abstract class BocaSystemsSDK {
     //LOW LEVEL CONVERSION FUNCTIONS SECTION
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    //7.0 Memory map a BMP file if it is already 1 bit per pixel and uncompressed, otherwise return null.
+    //Both bottom-up and top-down files are accepted, with either palette order.
+    private ByteBuffer MapMonochromeBMP(String url) {
+        ByteBuffer map = null;
+
+        try {
+            RandomAccessFile file = new RandomAccessFile(url, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                if (channel.size() > 54)
+                    map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                file.close();                                   //the mapping stays valid after closing
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return (null);
+        }
+        if (map == null)
+            return (null);
+
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.get(0) != 'B' || map.get(1) != 'M')
+            return (null);
+
+        int offset = map.getInt(10);
+        int infoSize = map.getInt(14);
+        int width = map.getInt(18);
+        int height = map.getInt(22);
+        int bitCount = map.getShort(28);
+        int compression = map.getInt(30);
+
+        //only plain BI_RGB 1 bit images with at least a BITMAPINFOHEADER
+        if (bitCount != 1 || compression != 0 || infoSize < 40 || width <= 0 || height == 0)
+            return (null);
+        long rowSize = ((width + 31L) / 32) * 4;
+        int palette = 14 + infoSize;
+        if (palette + 8 > offset || offset + rowSize * Math.abs((long) height) > map.limit())
+            return (null);
+
+        return (map);
+    }
+
+    //7.0 Send a 1 bit BMP mapped by MapMonochromeBMP without decoding or dithering it
+    private boolean MonochromeBmpToFGL(ByteBuffer map) {
+        boolean status = true;
+
+        try {
+            int offset = map.getInt(10);
+            int height = map.getInt(22);
+            int palette = 14 + map.getInt(14);
+
+            //palette entries are blue, green, red, reserved
+            int light0 = (map.get(palette) & 0xff) + (map.get(palette + 1) & 0xff) + (map.get(palette + 2) & 0xff);
+            int light1 = (map.get(palette + 4) & 0xff) + (map.get(palette + 5) & 0xff) + (map.get(palette + 6) & 0xff);
+
+            //EncodeBMP only needs the common part of the header, with a positive height
+            byte[] header = new byte[62];
+            map.position(0);
+            map.get(header, 0, 54);
+            map.position(0);
+            header[22] = (byte) (Math.abs(height) & 0xFF);
+            header[23] = (byte) ((Math.abs(height) >> 8) & 0xFF);
+            header[24] = (byte) ((Math.abs(height) >> 16) & 0xFF);
+            header[25] = (byte) ((Math.abs(height) >> 24) & 0xFF);
+
+            String logo = LogoNumber;
+            byte[] data = EncodeBMP(header, map, offset, height < 0, light0 > light1);
+            if (data != null) {
+                LogoNumber = "";
+                SendBMP(data, logo);
+            }
+        } catch (Exception e) {
+            status = false;
+            e.printStackTrace();
+        }
+
+        return (status);
+    }
+
     private boolean ImageToBmp(String url) {
 
         //ProcessedFF = true;          //do not let formfeed through until processing complete at the end of ParseBMP()
@@ -2080,7 +2951,7 @@ public abstract class BocaSystemsSDK {
             convertor = new BitmapConvertor(mContext);
 
             //Convert image file to Color Bitmap
-            bitmap = BitmapFactory.decodeFile(url);
+            bitmap = bitmapPool.decodeFile(url);            //7.0 decode into a pooled bitmap
             //height = bitmap.getHeight();
             //width = bitmap.getWidth();
 
@@ -2119,6 +2990,7 @@ public abstract class BocaSystemsSDK {
             //convertor.convertImageBitmap(bitmap,BMP_HEIGHT,BMP_WIDTH);             //@mdh test with this now
 
             PrintBMP(bitmap,bitmap.getWidth(),bitmap.getHeight());
+            bitmapPool.put(bitmap);                         //7.0 keep it for the next job
             //PrintBMP(bitmap, BMP_WIDTH, BMP_HEIGHT);
             //convertor.convertBitmap(bitmap);                                //Convert in background
         } catch (Exception e) {
@@ -2130,99 +3002,182 @@ public abstract class BocaSystemsSDK {
 
     }
 
-    private boolean PdfToBmp(final String url)
+    //7.0 pageList selects the pages to print, null prints all of them
+    private boolean PdfToBmp(final String url, final int[] pageList)
     {
         boolean status = true;
+        boolean finished = false;
+        final ArrayBlockingQueue<EncodedPage> pages = new ArrayBlockingQueue<EncodedPage>(PDF_LOOKAHEAD);
 
-        //new Thread(new Runnable()
-        //{
-
-            //@Override
-            //public void run()
-            //{
-                //ProcessedFF = true;          //do not let formfeed through until processing complete
-                BitmapConvertor convertor;
-                convertor = new BitmapConvertor(mContext);
-
-                Bitmap bitmap = null;
-                int BMP_WIDTH;
-                int BMP_HEIGHT;
-                //int height = 0;
-                //int width = 0;
-
-                selectedFileName = url;
+        selectedFileName = url;
 
-                //PDF create a new renderer
+        //7.0 Pages are rendered and converted to FGL graphics on a background thread so page N+1 is
+        //being prepared while page N is being transmitted.  The queue bounds how far ahead it may get.
+        Thread renderThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                boolean interrupted = false;
                 try {
-                    PdfRenderer renderer = new PdfRenderer(getSeekableFileDescriptor(url));
-                    //let us just render all pages
-                    final int pageCount = renderer.getPageCount();
-                    for (int i = 0; i < pageCount; i++) {
-                        Page page = renderer.openPage(i);
-                        BMP_HEIGHT = page.getHeight();
-                        BMP_WIDTH = page.getWidth();
-
-                        bitmap = Bitmap.createBitmap(BMP_WIDTH, BMP_HEIGHT, Config.ARGB_8888);
-                        Canvas canvas = new Canvas(bitmap);
-                        canvas.drawColor(Color.WHITE);
-                        canvas.drawBitmap(bitmap, 0, 0, null);
-
-                        if (ImageScaled) {
-                            //if landscape mode, set up height and width
-                            if (PrinterOrientation.equals("<LM>")) {
-                                BMP_WIDTH = (int) (PrinterResolution * StockWidth);
-                                BMP_HEIGHT = (int) (PrinterResolution * StockHeight);
-                            } else       //if not landscape, then rotate to portrait mode, by reversing height and width
-                            {
-                                BMP_WIDTH = (int) (PrinterResolution * StockHeight);
-                                BMP_HEIGHT = (int) (PrinterResolution * StockWidth);
-                            }
+                    RenderPdfPages(url, pageList, pages);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;                     //transmitting side gave up, nobody is waiting
+                }
+                finally
+                {
+                    if (!interrupted) {
+                        try {
+                            pages.put(END_OF_PAGES);
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        }, "BocaPdfRender");
+        renderThread.start();
 
-                        } else {
-                            if (PrinterOrientation.equals("<LM>")) {
-                                BMP_HEIGHT = (page.getHeight() / 72) * PrinterResolution;
-                                BMP_WIDTH = (page.getWidth() / 72) * PrinterResolution;
-                            } else        //else if Portrait mode
-                            {
-                                BMP_HEIGHT = (page.getWidth() / 72) * PrinterResolution;
-                                BMP_WIDTH = (page.getHeight() / 72) * PrinterResolution;
-                            }
+        //transmit each page as soon as it is ready
+        try {
+            EncodedPage page;
+            while ((page = pages.take()) != END_OF_PAGES)
+                SendBMP(page.data, page.logo);
+            finished = true;
+        }
+        catch (InterruptedException e)
+        {
+            status = false;
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            if (!finished)
+                renderThread.interrupt();                   //do not leave the render thread blocked on a full queue
+        }
 
-                        }
+        return (status);
+    }
 
-                        bitmap = getResizedBitmap(bitmap, BMP_WIDTH, BMP_HEIGHT);       //this scales the image
+    //7.0 Producer side of PdfToBmp.  Renders each selected page, converts it to FGL graphics and queues it for transmission.
+    private void RenderPdfPages(String url, int[] pageList, ArrayBlockingQueue<EncodedPage> pages) throws IOException, InterruptedException
+    {
+        Bitmap bitmap = null;
+        Matrix transform = new Matrix();
+        int BMP_WIDTH;
+        int BMP_HEIGHT;
 
-                        //say we render for showing on the screen
-                        page.render(bitmap, null, null, Page.RENDER_MODE_FOR_PRINT);
-                        //page.render(bitmap, null, null, Page.RENDER_MODE_FOR_DISPLAY);
-                        //do stuff with the bitmap
-                        PrintBMP(bitmap,bitmap.getWidth(),bitmap.getHeight());
+        //PDF create a new renderer
+        PdfRenderer renderer = new PdfRenderer(getSeekableFileDescriptor(url));
+        try {
+            //let us just render all pages
+            final int pageCount = renderer.getPageCount();
+            final int selected = (pageList == null) ? pageCount : pageList.length;
+            for (int n = 0; n < selected; n++) {
+                int i = (pageList == null) ? n : pageList[n];
+                if (i < 0 || i >= pageCount)
+                    continue;                               //7.0 skip pages that do not exist
+                Page page = renderer.openPage(i);
+                byte[] data;
+                String logo = LogoNumber;
+                try {
+                    if (ImageScaled) {
+                        //if landscape mode, set up height and width
+                        if (PrinterOrientation.equals("<LM>")) {
+                            BMP_WIDTH = (int) (PrinterResolution * StockWidth);
+                            BMP_HEIGHT = (int) (PrinterResolution * StockHeight);
+                        } else       //if not landscape, then rotate to portrait mode, by reversing height and width
+                        {
+                            BMP_WIDTH = (int) (PrinterResolution * StockHeight);
+                            BMP_HEIGHT = (int) (PrinterResolution * StockWidth);
+                        }
 
-                        //PrintBMP(bitmap, BMP_WIDTH, BMP_HEIGHT);
-                        //convertor.convertBitmap(bitmap);                                //Convert in background
+                    } else {
+                        //7.0 page size is in points (1/72 inch).  Round instead of truncating the inches.
+                        if (PrinterOrientation.equals("<LM>")) {
+                            BMP_HEIGHT = (int) Math.round(page.getHeight() * PrinterResolution / 72.0);
+                            BMP_WIDTH = (int) Math.round(page.getWidth() * PrinterResolution / 72.0);
+                        } else        //else if Portrait mode
+                        {
+                            BMP_HEIGHT = (int) Math.round(page.getWidth() * PrinterResolution / 72.0);
+                            BMP_WIDTH = (int) Math.round(page.getHeight() * PrinterResolution / 72.0);
+                        }
 
-                        // close the page
-                        page.close();
                     }
 
-                    //close the renderer
-                    renderer.close();
+                    //7.0 render the page once, straight at the printer size.  The matrix stretches the page
+                    //over the whole bitmap just like the old resize did.
+                    bitmap = getPdfBitmap(BMP_WIDTH, BMP_HEIGHT);
+                    transform.setScale((float) BMP_WIDTH / page.getWidth(), (float) BMP_HEIGHT / page.getHeight());
+                    page.render(bitmap, null, transform, Page.RENDER_MODE_FOR_PRINT);
+                    //page.render(bitmap, null, null, Page.RENDER_MODE_FOR_DISPLAY);
+                    //convert the bitmap to FGL graphics, transmission happens on the calling thread
+                    data = EncodeBMP(BitmapToBMP(bitmap, bitmap.getWidth(), bitmap.getHeight()));
                 }
-                catch (IOException e)
+                finally
                 {
-                    //status = false;
-                    e.printStackTrace();
+                    // close the page
+                    page.close();
                 }
 
-            //}
-        //}).start();
-
-        return (status);
+                if (data != null) {
+                    LogoNumber = "";                        //only the first page is downloaded as a logo
+                    pages.put(new EncodedPage(data, logo));
+                }
+            }
+        }
+        finally
+        {
+            //close the renderer
+            renderer.close();
+        }
     }
 
     //This routine will read a monochrome BMP file, parse it and convert it to Boca FGL graphics commands.
     //This routine will also remove as much blank spaces as possible so that there is less to tranmit via usb/wifi/bluetooth to the printer.
     private void ParseBMP(byte[] buffer) {
+        String logo = LogoNumber;                               //7.0 capture before encoding clears it
+        byte[] data = EncodeBMP(buffer);
+        if (data != null) {
+            LogoNumber = "";
+            SendBMP(data, logo);
+        }
+    }
+
+    //7.0 Send graphics produced by EncodeBMP.  If a logo number is given the graphics are wrapped in the
+    //<ID#> escape sequence so the printer stores them as a logo instead of printing them.
+    private void SendBMP(byte[] data, String logo) {
+        byte esc[] = new byte[1];
+        esc[0] = 0x1b;
+
+        if (!logo.equals("")) {
+            //Send ID number and an escape to trigger download.  Logo number should be between 1 and 1000
+            SendString("<RE0><DI><RC0,0><ID" + logo + ">");
+            SendData(esc, false);   //6.1 Added FF boolean for WIFI
+        }
+        SendData(data, true);       //6.1 Added FF boolean for WIFI
+        //if logo number is not blank, send an escape to end download
+        if (!logo.equals(""))
+            SendData(esc, false);   //6.1 Added FF boolean for WIFI
+    }
+
+    //7.0 Conversion half of ParseBMP.  Returns the FGL graphics for the BMP without sending anything,
+    //or null if the BMP is not a valid monochrome image.
+    private byte[] EncodeBMP(byte[] buffer) {
+        //raster data runs to the end of the buffer, bottom row first, with 0 bits black
+        return (EncodeBMP(buffer, ByteBuffer.wrap(buffer), -1, false, false));
+    }
+
+    //7.0 header holds the 54 byte BMP file and info headers (positive height).  The raster data is read from
+    //pixels starting at dataOffset (-1 when it runs to the end of pixels).  topDown is set for BMPs stored
+    //top row first and whiteIsZero when palette entry 0 is the light color.
+    private byte[] EncodeBMP(byte[] buffer, ByteBuffer pixels, int dataOffset, boolean topDown, boolean whiteIsZero) {
 
         String command = "";
 
@@ -2406,8 +3361,10 @@ public abstract class BocaSystemsSDK {
                     CompBuffer[i] = 0;
 
                 //Step 2 - First pass to convert raster data to Boca graphics
-                //long bmpcnt = buffer.length - 1;                               //start at the end and read left to right per row
-                int bmpcnt = buffer.length - 1;                               //start at the end and read left to right per row
+                //7.0 each row is read from its last byte back to its first, starting with the top row of the image
+                if (dataOffset < 0)
+                    dataOffset = pixels.limit() - (RowSize * (int) Height);
+                int bmpcnt;
                 arraypointer = CompRowSize - 1;
 
                 //if logo number does not exist then print the image else download graphic as a logo
@@ -2419,14 +3376,8 @@ public abstract class BocaSystemsSDK {
                     //When saving a logo row,column should be 0,0
                     originalx = 0;
                     originaly = 0;
-                    byte esc[] = new byte[1];
-                    esc[0] = 0x1b;
 
-                    //Send ID number and an escape to trigger download.  Logo number should be between 1 and 1000
-                    //include ID number and escape control character
-                    command = "<RE0><DI><RC0,0><ID" + LogoNumber + ">";       // + 0x001b;
-                    SendString(command);
-                    SendData(esc, false);   //6.1 Added FF boolean for WIFI
+                    //7.0 the <ID#> download header is now sent by SendBMP
                     command = "";
                 }
 
@@ -2443,8 +3394,16 @@ public abstract class BocaSystemsSDK {
 
                 for (y = 0; y < Height; y++) {
 
+                    if (topDown)
+                        bmpcnt = dataOffset + (y * RowSize) + RowSize - 1;
+                    else
+                        bmpcnt = dataOffset + ((int) (Height - 1 - y) * RowSize) + RowSize - 1;
+
                     for (x = 0; x < RowSize; x++) {
-                        charx = (~buffer[bmpcnt--]) & 0xff;                     //get the char and invert it
+                        charx = pixels.get(bmpcnt--);
+                        if (!whiteIsZero)
+                            charx = ~charx;                                     //invert it so black bits are 1
+                        charx &= 0xff;
 
                         if (x < BytesToIgnore) {
                             charx = 0;
@@ -2856,15 +3815,7 @@ public abstract class BocaSystemsSDK {
                     }
                 }
 
-                SendData(bit_image_refined, true);  //6.1 Added FF boolean for WIFI
-                //if logo number is not blank, send an escape to end download
-                if (LogoNumber != "") {
-                    byte esc[] = new byte[1];
-                    esc[0] = 0x1b;
-                    SendData(esc, false);   //6.1 Added FF boolean for WIFI
-                    LogoNumber = "";
-                }
-
+                return (bit_image_refined);
 
             } else {
                 //file must be monochrome
@@ -2878,6 +3829,27 @@ public abstract class BocaSystemsSDK {
             //[alert show];
 
         }
+        return (null);
+    }
+
+    //7.0 Return the PDF render target, cleared to white.  The same bitmap is reused for every page and job
+    //and only swapped for a pooled one when a page needs more memory than it already has.
+    private Bitmap getPdfBitmap(int width, int height) {
+        if (pdfBitmap != null && !pdfBitmap.isRecycled()) {
+            if (pdfBitmap.getWidth() != width || pdfBitmap.getHeight() != height) {
+                if (pdfBitmap.getAllocationByteCount() >= width * height * 4)
+                    pdfBitmap.reconfigure(width, height, Config.ARGB_8888);
+                else {
+                    bitmapPool.put(pdfBitmap);
+                    pdfBitmap = null;
+                }
+            }
+        }
+        if (pdfBitmap == null || pdfBitmap.isRecycled())
+            pdfBitmap = bitmapPool.get(width, height, Config.ARGB_8888);
+
+        pdfBitmap.eraseColor(Color.WHITE);
+        return (pdfBitmap);
     }
 
     private Bitmap getResizedBitmap(Bitmap bm, int newWidth, int newHeight) {
@@ -2890,14 +3862,21 @@ public abstract class BocaSystemsSDK {
         // RESIZE THE BIT MAP
         matrix.postScale(scaleWidth, scaleHeight);
 
-        // "RECREATE" THE NEW BITMAP
-        Bitmap resizedBitmap = Bitmap.createBitmap(
-                bm, 0, 0, width, height, matrix, false);
-        bm.recycle();
+        //7.0 draw into a pooled bitmap instead of creating a new one, and pool the original
+        Bitmap resizedBitmap = bitmapPool.get(newWidth, newHeight, Config.ARGB_8888);
+        resizedBitmap.eraseColor(Color.TRANSPARENT);
+        new Canvas(resizedBitmap).drawBitmap(bm, matrix, null);
+        bitmapPool.put(bm);
         return resizedBitmap;
     }
 
+
     private void PrintBMP(Bitmap image, int width, int height) {
+        ParseBMP(BitmapToBMP(image, width, height));            //remove some white space and send to printer
+    }
+
+    //7.0 Conversion half of PrintBMP.  Returns the image as a monochrome BMP file image ready for ParseBMP/EncodeBMP.
+    private byte[] BitmapToBMP(Bitmap image, int width, int height) {
         if (ImageDithered)
             CreateTransformedImage(image, width, height);
         else
@@ -2919,7 +3898,7 @@ public abstract class BocaSystemsSDK {
         for (int i = 0; i < nRead; i++) {
             Test[i + 62] = ToByte(mRawBitmapData[i]);           //move the monochrome BMP graphical data to the same byte array
         }
-        ParseBMP(Test);                                         //remove some white space and send to printer
+        return (Test);
 
     }
 
@@ -3321,87 +4300,146 @@ public abstract class BocaSystemsSDK {
 
     //Read one of the text files included in Assets and send it to the printer
     private boolean RWFile(String file_name) {
-        //InputStream inStream = null;
-        BufferedInputStream bis = null;
-        String msg = "";
-        boolean status = false;
+        return (SendAsset(file_name, mContext));               //7.0
+    }
+
+    //7.0 Send one of the files included in the application Assets to the printer.  A preloaded asset is
+    //sent from the cache, otherwise it is streamed in STREAM_CHUNK pieces.
+    public boolean SendAsset(String file_name, Context context) {
+        byte[] cached;
+        InputStream inStream;
+
+        synchronized (assetCache) {
+            cached = assetCache.get(file_name);
+        }
+        if (cached != null) {
+            SendData(cached, false);
+            return (true);
+        }
 
         try {
-            //AssetManager am = getApplicationContext().getAssets();
-            AssetManager am = mContext.getAssets();
-            //(mContext);      //used to be this instead of mContext
-            InputStream inStream = am.open(file_name);
+            inStream = context.getAssets().open(file_name);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return (false);
+        }
 
-            // input stream is converted to buffered input stream
-            bis = new BufferedInputStream(inStream);
+        return (StreamFile(Channels.newChannel(inStream), inStream));
+    }
 
-            // read until a single byte is available
-            while (bis.available() > 0) {
-                // read next available character
-                char ch = (char) bis.read();
+    //7.0 Read an asset into the asset cache so later SendAsset calls do not touch the file again.
+    //Useful when the same ticket is printed many times.
+    public boolean PreloadAsset(String file_name, Context context) {
+        boolean status = false;
 
-                //Debug print the read character.
-                //System.out.println("The character read = " + ch );
-                msg = msg + ch;
+        try {
+            InputStream inStream = context.getAssets().open(file_name);
+            try {
+                byte[] bytes = ReadFully(inStream);
+                synchronized (assetCache) {
+                    assetCache.put(file_name, bytes);
+                }
+                status = true;
+            } finally {
+                inStream.close();
             }
-            SendString(msg);
-            status = true;
-
-        } catch (Exception e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
         return (status);
     }
 
+    //7.0 Drop all preloaded assets
+    public void ClearAssetCache() {
+        synchronized (assetCache) {
+            assetCache.clear();
+        }
+    }
+
+    //7.0 Read a stream to the end in STREAM_CHUNK pieces
+    static byte[] ReadFully(InputStream inStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(STREAM_CHUNK);
+        byte[] chunk = new byte[STREAM_CHUNK];
+        int count;
+
+        while ((count = inStream.read(chunk)) != -1)
+            bytes.write(chunk, 0, count);
+        return (bytes.toByteArray());
+    }
+
     //Read text file from specified directory
+    //7.0 The file is streamed to the printer in STREAM_CHUNK pieces instead of being read into one String
     private boolean RWTextFile(final String url) {
     // public boolean RWTextFile(final String url) {
-        String testFile;
-        String str = "";
+        FileInputStream fin;
 
-        boolean status = false;
+        if (0 == url.length())
+        {
+            StatusReportCallback("url is empty");
+            return (false);
+        }
 
         try {
-            if (0 == url.length())
-            {
-                StatusReportCallback("url is empty");
-                return status;
+            fin = new FileInputStream(url);
+            if (0 == fin.getChannel().size()) {
+                fin.close();
+                StatusReportCallback("File is empty");
+                return (false);
             }
-            // String msg = String.format("Memory: %ld", getMemorySizeInBytes());
-            // StatusReportCallback(msg);
+        } catch (Exception e) {
+            StatusReportCallback(e.toString());
+            return (false);
+        }
 
-            File file = new File(url);
-            if (null == file)
-            {
-                StatusReportCallback("new File is NULL");
-                return status;
+        return (StreamFile(fin.getChannel(), fin));
+    }
+
+    //7.0 Copy a file or asset to the printer a chunk at a time through one reused buffer, then close it
+    private boolean StreamFile(ReadableByteChannel channel, Closeable source) {
+        byte[] chunk = new byte[STREAM_CHUNK];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        boolean status = false;
+        int count;
+
+        try {
+            while ((count = channel.read(buffer)) != -1) {
+                if (count > 0)
+                    WriteChunk(chunk, count);
+                buffer.clear();
             }
-            FileInputStream fin = new FileInputStream(file);
-            if (null == fin)
-            {
-                StatusReportCallback("FileInputStream is NULL");
-                return status;
-            }
-            str = convertStreamToString(fin);
-            //Make sure you close all streams.
-            fin.close();
-            //if file read
-            if (0 == str.length()) {
-                StatusReportCallback("FileInputStream is NULL");
-                return status;
-            }
-            //output file to printer as one long string
-            SendString(str);
             status = true;
         } catch (Exception e) {
-            str = e.toString();
-            StatusReportCallback(str);
-            // e.printStackTrace();
+            StatusReportCallback(e.toString());
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
-        str = "";
         return (status);
     }
 
+    //7.0 Write the first length bytes of chunk to the open transport without building a String
+    private void WriteChunk(byte[] chunk, int length) throws IOException {
+        if (reconnecting && Hold(Arrays.copyOf(chunk, length)))     //held, so copied since the chunk is reused
+            return;
+        switch (Mode) {
+            case "BT":
+                mConnectedThreadBT.write(chunk, 0, length);
+                break;
+            case "USB":
+                Write_USB_Data(chunk, 0, length);
+                break;
+            case "WIFI":
+                Write_WIFI_Data(chunk, length);
+                break;
+            default:
+                StatusReportCallback("Invalid Mode");
+                break;
+        }
+    }
+
     private Context mContext;
 
     public class BitmapConvertor {
@@ -3561,17 +4599,6 @@ public abstract class BocaSystemsSDK {
     }
 
 
-    private static byte[] CharsToBytes(char[] buffer)
-    {
-
-        byte[] b = new byte[buffer.length];
-        for (int i = 0; i < b.length; i++) {
-            b[i] = (byte) buffer[i];
-        }
-        return b;
-
-    }
-
     private static char[] BytesToChars(byte[] buffer)
     {
 
@@ -0,0 +1,124 @@
+package bocasystems.com.sdk;
+
+import java.util.Arrays;
+
+//7.0 Growable byte buffer that FGL tickets are written into before being sent with SendData.
+//Sinks are meant to be reused: obtain() one from the pool, fill it, send it and recycle() it,
+//so building a ticket does not allocate once the buffer has grown to the ticket size.
+public class ByteSink {
+
+    private static final int POOL_SIZE = 8;
+    private static final ByteSink[] pool = new ByteSink[POOL_SIZE];
+    private static int pooled = 0;
+
+    private byte[] buffer;
+    private int length = 0;
+
+    public ByteSink() {
+        this(1024);
+    }
+
+    public ByteSink(int capacity) {
+        buffer = new byte[Math.max(16, capacity)];
+    }
+
+    //Return an empty sink from the pool, or a new one if the pool is empty
+    public static ByteSink obtain() {
+        synchronized (pool) {
+            if (pooled > 0) {
+                ByteSink sink = pool[--pooled];
+                pool[pooled] = null;
+                return (sink);
+            }
+        }
+        return (new ByteSink());
+    }
+
+    //Give the sink back to the pool.  It must not be used afterwards.
+    public void recycle() {
+        reset();
+        synchronized (pool) {
+            if (pooled < POOL_SIZE)
+                pool[pooled++] = this;
+        }
+    }
+
+    public ByteSink reset() {
+        length = 0;
+        return (this);
+    }
+
+    public ByteSink write(int b) {
+        ensure(1);
+        buffer[length++] = (byte) b;
+        return (this);
+    }
+
+    public ByteSink write(byte[] bytes) {
+        return (write(bytes, 0, bytes.length));
+    }
+
+    public ByteSink write(byte[] bytes, int offset, int count) {
+        ensure(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+        return (this);
+    }
+
+    //Write text one byte per character, the same as the ISO-8859-1 Wi-Fi writer.
+    //Characters outside that range are sent as '?'.
+    public ByteSink writeText(CharSequence text) {
+        int count = text.length();
+        ensure(count);
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            buffer[length++] = (byte) (c <= 0xff ? c : '?');
+        }
+        return (this);
+    }
+
+    //Write a number as decimal ASCII digits without creating a String
+    public ByteSink writeNumber(long value) {
+        ensure(20);
+        if (value == Long.MIN_VALUE) {
+            writeText("-9223372036854775808");
+            return (this);
+        }
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+
+        //digits were written least significant first, reverse them
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte t = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = t;
+        }
+        return (this);
+    }
+
+    //Backing array, valid from 0 to length()
+    public byte[] array() {
+        return (buffer);
+    }
+
+    public int length() {
+        return (length);
+    }
+
+    //Copy of the written bytes
+    public byte[] toByteArray() {
+        return (Arrays.copyOf(buffer, length));
+    }
+
+    private void ensure(int count) {
+        if (length + count > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+    }
+}
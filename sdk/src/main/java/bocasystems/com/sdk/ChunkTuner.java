@@ -0,0 +1,120 @@
+package bocasystems.com.sdk;
+
+import java.util.ArrayList;
+
+//7.0 Picks the USB transfer size at run time.  Sizes are whole multiples of the endpoint's max packet
+//size, so only the last transfer of a write can end in a short packet, and run from the largest the
+//buffers hold down to minChunk in halving steps.
+//
+//Tuning starts at the largest size and measures throughput over WINDOW full transfers at each size,
+//stepping down while it stays within 5% of the best seen.  It settles on the smallest size that still
+//keeps the bus busy: past that bigger transfers gain nothing, while smaller ones let the writer check
+//for X-Off more often and resend less after a failed transfer.  Tuning runs again every RETUNE
+//transfers, as the load on the host controller changes.
+class ChunkTuner {
+
+    static final int WINDOW = 8;                        //full transfers measured at each size
+    static final int RETUNE = 1024;                     //transfers between tunings
+    private static final double KEEP = 0.95;            //fraction of the best rate a smaller size must reach
+
+    private final int packetSize;
+    private final int[] sizes;                          //largest first
+    private int index = 0;                              //size in use
+    private int settled = 0;                            //smallest size found good so far
+    private boolean tuning = true;
+    private double bestRate = 0;
+    private int measured = 0;
+    private long windowBytes = 0;
+    private long windowNanos = 0;
+    private int sinceTuning = 0;
+
+    //metrics
+    private double rate = 0;
+    private long tunings = 0;
+
+    //A tuner whose sizes run from minChunk to maxChunk.  minChunk equal to maxChunk fixes the size.
+    ChunkTuner(int packetSize, int minChunk, int maxChunk) {
+        this.packetSize = Math.max(1, packetSize);
+        int largest = Math.max(this.packetSize, maxChunk / this.packetSize * this.packetSize);
+        int smallest = Math.min(largest, Math.max(this.packetSize, minChunk));
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (int size = largest; size >= smallest; size = size / 2 / this.packetSize * this.packetSize) {
+            list.add(size);
+            if (size == this.packetSize)
+                break;
+        }
+        sizes = new int[list.size()];
+        for (int i = 0; i < sizes.length; i++)
+            sizes[i] = list.get(i);
+        tuning = sizes.length > 1;
+    }
+
+    //Size of the next transfer
+    synchronized int chunk() {
+        return (sizes[index]);
+    }
+
+    //Largest size the tuner may pick, for sizing buffers
+    int maxChunk() {
+        return (sizes[0]);
+    }
+
+    int getPacketSize() {
+        return (packetSize);
+    }
+
+    //A transfer of length bytes finished, taking nanos of bus time.  Only transfers of the current size
+    //are measured, the short one at the end of a write says little about the bus.
+    synchronized void completed(int length, long nanos) {
+        if (sizes.length < 2 || length != sizes[index])
+            return;
+        windowBytes += length;
+        windowNanos += Math.max(1, nanos);
+        if (++measured < WINDOW)
+            return;
+        double windowRate = windowBytes * 1e9 / windowNanos;
+        measured = 0;
+        windowBytes = 0;
+        windowNanos = 0;
+
+        if (!tuning) {
+            rate = windowRate;
+            sinceTuning += WINDOW;
+            if (sinceTuning >= RETUNE) {
+                //start again from the largest size
+                tuning = true;
+                bestRate = 0;
+                index = 0;
+                settled = 0;
+            }
+            return;
+        }
+
+        bestRate = Math.max(bestRate, windowRate);
+        if (windowRate >= KEEP * bestRate) {
+            settled = index;
+            rate = windowRate;
+            if (index + 1 < sizes.length) {
+                index++;
+                return;
+            }
+        }
+        index = settled;
+        tuning = false;
+        sinceTuning = 0;
+        tunings++;
+    }
+
+    synchronized boolean isTuning() {
+        return (tuning);
+    }
+
+    //Bytes per second measured at the settled size
+    synchronized double getRate() {
+        return (rate);
+    }
+
+    synchronized long getTuningCount() {
+        return (tunings);
+    }
+}
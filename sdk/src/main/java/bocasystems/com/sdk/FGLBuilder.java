@@ -0,0 +1,147 @@
+package bocasystems.com.sdk;
+
+//7.0 Typed FGL command builder.  Commands are encoded straight into a ByteSink instead of being
+//concatenated into Strings, for example:
+//
+//    FGLBuilder fgl = new FGLBuilder();
+//    fgl.rowColumn(100, 100).font(11).text("This is a test").cut();
+//    boca.SendData(fgl, false);
+//
+//Call reset() to reuse the same builder and buffer for the next ticket.
+public class FGLBuilder {
+
+    private final ByteSink sink;
+
+    public FGLBuilder() {
+        this(new ByteSink());
+    }
+
+    public FGLBuilder(ByteSink sink) {
+        this.sink = sink;
+    }
+
+    public ByteSink sink() {
+        return (sink);
+    }
+
+    public FGLBuilder reset() {
+        sink.reset();
+        return (this);
+    }
+
+    //<RCrow,column> move to a row and column
+    public FGLBuilder rowColumn(int row, int column) {
+        return (command("RC", row, column));
+    }
+
+    //<Fn> select a font
+    public FGLBuilder font(int font) {
+        return (command("F", font));
+    }
+
+    //<HWheight,width> character height and width multipliers
+    public FGLBuilder heightWidth(int height, int width) {
+        return (command("HW", height, width));
+    }
+
+    //<RL> rotate left
+    public FGLBuilder rotateLeft() {
+        return (command("RL"));
+    }
+
+    //<RR> rotate right
+    public FGLBuilder rotateRight() {
+        return (command("RR"));
+    }
+
+    //<RU> rotate upside down
+    public FGLBuilder upsideDown() {
+        return (command("RU"));
+    }
+
+    //<NR> no rotation
+    public FGLBuilder noRotation() {
+        return (command("NR"));
+    }
+
+    //<SProw,column> starting position for a logo
+    public FGLBuilder logoPosition(int row, int column) {
+        return (command("SP", row, column));
+    }
+
+    //<LDn> print a logo stored in printer memory
+    public FGLBuilder printLogo(int idnum) {
+        return (command("LD", idnum));
+    }
+
+    //<Xn> bar code module width
+    public FGLBuilder barcodeWidth(int width) {
+        return (command("X", width));
+    }
+
+    //Bar code such as <NXL10>*GHOST 12*.  The symbology is the command letters (NXL, NXP, NP, ...),
+    //the height follows it and the data is printed as given, including any start/stop characters.
+    public FGLBuilder barcode(String symbology, int height, CharSequence data) {
+        for (int i = 0; i < symbology.length(); i++) {
+            char c = symbology.charAt(i);
+            if (c < 'A' || c > 'Z')
+                throw new IllegalArgumentException("Invalid bar code symbology " + symbology);
+        }
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c < 32 || c > 126 || c == '<' || c == '>')
+                throw new IllegalArgumentException("Invalid bar code character");
+        }
+        command(symbology, height);
+        sink.writeText(data);
+        return (this);
+    }
+
+    //<Gn> followed by n bytes of graphics data for the current row
+    public FGLBuilder graphics(byte[] data, int offset, int count) {
+        command("G", count);
+        sink.write(data, offset, count);
+        return (this);
+    }
+
+    public FGLBuilder graphics(byte[] data) {
+        return (graphics(data, 0, data.length));
+    }
+
+    //Text to print at the current position
+    public FGLBuilder text(CharSequence text) {
+        sink.writeText(text);
+        return (this);
+    }
+
+    public FGLBuilder number(long value) {
+        sink.writeNumber(value);
+        return (this);
+    }
+
+    //<p> print and cut
+    public FGLBuilder cut() {
+        return (command("p"));
+    }
+
+    //<q> print without cutting
+    public FGLBuilder noCut() {
+        return (command("q"));
+    }
+
+    //Any other FGL command without parameters, given without the brackets
+    public FGLBuilder command(String name) {
+        sink.write('<').writeText(name).write('>');
+        return (this);
+    }
+
+    public FGLBuilder command(String name, long value) {
+        sink.write('<').writeText(name).writeNumber(value).write('>');
+        return (this);
+    }
+
+    public FGLBuilder command(String name, long first, long second) {
+        sink.write('<').writeText(name).writeNumber(first).write(',').writeNumber(second).write('>');
+        return (this);
+    }
+}
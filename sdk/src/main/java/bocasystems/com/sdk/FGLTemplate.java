@@ -0,0 +1,229 @@
+package bocasystems.com.sdk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+//7.0 FGL ticket compiled once into constant byte segments and variable slots.
+//
+//Slots are written in the FGL text as {{type:name}} where type is text, number or barcode.
+//{{name}} is a text slot.  The same name may be used more than once, for example:
+//
+//    <RC300,95><F6><RL>{{text:event}}<RC18,898><X2><NXL10>*{{barcode:serial}}*<RC345,200>SEAT {{number:seat}}
+//
+//Compile the template once, then fill a Ticket per print and write it to a ByteSink:
+//
+//    FGLTemplate template = FGLTemplate.compile(bytes);
+//    FGLTemplate.Ticket ticket = template.newTicket();
+//    int seat = template.slot("seat");
+//    ticket.setNumber(seat, 12).writeTo(sink);
+//
+//Filling a ticket stores references only and writeTo copies straight into the sink, so no Strings
+//or arrays are created per ticket.
+public class FGLTemplate {
+
+    public static final int TEXT = 0;
+    public static final int NUMBER = 1;
+    public static final int BARCODE = 2;
+
+    private final byte[][] segments;            //constant FGL, one more than positions
+    private final int[] positions;              //slot written after each segment
+    private final String[] names;
+    private final int[] types;
+
+    private FGLTemplate(byte[][] segments, int[] positions, String[] names, int[] types) {
+        this.segments = segments;
+        this.positions = positions;
+        this.names = names;
+        this.types = types;
+    }
+
+    public static FGLTemplate compile(InputStream in) throws IOException {
+        return (compile(BocaSystemsSDK.ReadFully(in)));
+    }
+
+    //One byte per character, the same as ByteSink.writeText.  Characters outside ISO-8859-1 become '?'.
+    public static FGLTemplate compile(String fgl) {
+        byte[] bytes = new byte[fgl.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            char c = fgl.charAt(i);
+            bytes[i] = (byte) (c <= 0xff ? c : '?');
+        }
+        return (compile(bytes));
+    }
+
+    //Throws IllegalArgumentException for an unterminated slot, an unknown type or a name used with two types
+    public static FGLTemplate compile(byte[] fgl) {
+        ArrayList<byte[]> segments = new ArrayList<byte[]>();
+        ArrayList<Integer> positions = new ArrayList<Integer>();
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Integer> types = new ArrayList<Integer>();
+        int start = 0;
+        int i = 0;
+
+        while (i < fgl.length - 1) {
+            if (fgl[i] != '{' || fgl[i + 1] != '{') {
+                i++;
+                continue;
+            }
+
+            int end = i + 2;
+            while (end < fgl.length - 1 && !(fgl[end] == '}' && fgl[end + 1] == '}'))
+                end++;
+            if (end >= fgl.length - 1)
+                throw new IllegalArgumentException("Unterminated slot at offset " + i);
+
+            String slot = new String(fgl, i + 2, end - (i + 2)).trim();
+            String name = slot;
+            int type = TEXT;
+            int colon = slot.indexOf(':');
+            if (colon >= 0) {
+                name = slot.substring(colon + 1).trim();
+                type = Type(slot.substring(0, colon).trim());
+            }
+            if (name.length() == 0)
+                throw new IllegalArgumentException("Slot without a name at offset " + i);
+
+            int index = names.indexOf(name);
+            if (index < 0) {
+                index = names.size();
+                names.add(name);
+                types.add(type);
+            } else if (types.get(index) != type) {
+                throw new IllegalArgumentException("Slot " + name + " used with two types");
+            }
+
+            segments.add(Arrays.copyOfRange(fgl, start, i));
+            positions.add(index);
+            i = end + 2;
+            start = i;
+        }
+        segments.add(Arrays.copyOfRange(fgl, start, fgl.length));
+
+        int[] slotPositions = new int[positions.size()];
+        for (int p = 0; p < slotPositions.length; p++)
+            slotPositions[p] = positions.get(p);
+        int[] slotTypes = new int[types.size()];
+        for (int t = 0; t < slotTypes.length; t++)
+            slotTypes[t] = types.get(t);
+
+        return (new FGLTemplate(segments.toArray(new byte[segments.size()][]), slotPositions,
+                names.toArray(new String[names.size()]), slotTypes));
+    }
+
+    //Index of a named slot, for the Ticket setters.  Look it up once, not per ticket.
+    public int slot(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name))
+                return (i);
+        }
+        throw new IllegalArgumentException("No slot named " + name);
+    }
+
+    public int getSlotCount() {
+        return (names.length);
+    }
+
+    public String getSlotName(int slot) {
+        return (names[slot]);
+    }
+
+    public int getSlotType(int slot) {
+        return (types[slot]);
+    }
+
+    public Ticket newTicket() {
+        return (new Ticket());
+    }
+
+    private static int Type(String type) {
+        if (type.equals("text"))
+            return (TEXT);
+        if (type.equals("number"))
+            return (NUMBER);
+        if (type.equals("barcode"))
+            return (BARCODE);
+        throw new IllegalArgumentException("Unknown slot type " + type);
+    }
+
+    //Slot values for one ticket.  Reuse the same Ticket for a whole batch; values stay set until changed.
+    public class Ticket {
+
+        private final CharSequence[] text = new CharSequence[names.length];
+        private final long[] numbers = new long[names.length];
+        private final boolean[] set = new boolean[names.length];
+
+        private Ticket() {
+        }
+
+        //Text may not contain control characters or the FGL command brackets, so a field value can not
+        //add commands to the ticket.  Characters outside ISO-8859-1 are sent as '?'.
+        public Ticket setText(int slot, CharSequence value) {
+            Check(slot, TEXT);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 32 || c == '<' || c == '>')
+                    throw new IllegalArgumentException("Invalid text character in slot " + names[slot]);
+            }
+            text[slot] = value;
+            set[slot] = true;
+            return (this);
+        }
+
+        public Ticket setNumber(int slot, long value) {
+            Check(slot, NUMBER);
+            numbers[slot] = value;
+            set[slot] = true;
+            return (this);
+        }
+
+        //Barcode data must be printable ASCII and may not contain the FGL command brackets
+        public Ticket setBarcode(int slot, CharSequence value) {
+            Check(slot, BARCODE);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 32 || c > 126 || c == '<' || c == '>')
+                    throw new IllegalArgumentException("Invalid barcode character in slot " + names[slot]);
+            }
+            text[slot] = value;
+            set[slot] = true;
+            return (this);
+        }
+
+        //Append the complete ticket to the sink.  Throws IllegalStateException if a slot was never set,
+        //before anything is written, so the sink is never left holding part of a ticket.
+        public Ticket writeTo(ByteSink sink) {
+            for (int slot = 0; slot < set.length; slot++) {
+                if (!set[slot])
+                    throw new IllegalStateException("Slot " + names[slot] + " not set");
+            }
+            for (int i = 0; i < positions.length; i++) {
+                sink.write(segments[i]);
+                int slot = positions[i];
+                if (types[slot] == NUMBER)
+                    sink.writeNumber(numbers[slot]);
+                else
+                    sink.writeText(text[slot]);
+            }
+            sink.write(segments[positions.length]);
+            return (this);
+        }
+
+        private void Check(int slot, int type) {
+            if (types[slot] != type)
+                throw new IllegalArgumentException("Slot " + names[slot] + " is not a " + TypeName(type) + " slot");
+        }
+    }
+
+    private static String TypeName(int type) {
+        switch (type) {
+            case NUMBER:
+                return ("number");
+            case BARCODE:
+                return ("barcode");
+            default:
+                return ("text");
+        }
+    }
+}
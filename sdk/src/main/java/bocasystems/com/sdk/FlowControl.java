@@ -0,0 +1,132 @@
+package bocasystems.com.sdk;
+
+//7.0 X-On/X-Off gate shared by a session's read thread and its writers.  The read thread scans incoming
+//bytes and closes the gate on X-Off (19) and opens it on X-On (17).  Writers call await() before each
+//block they send and wait while the gate is closed.  A writer that must not wait, such as the Wi-Fi
+//selector thread, asks ready() instead and tries again later.
+//
+//If no X-On arrives within the timeout the writer carries on, on the assumption that the X-On was lost,
+//and the timeout is counted.  A timeout of 0 waits for X-On indefinitely.
+class FlowControl {
+
+    static final int XON = 17;
+    static final int XOFF = 19;
+
+    private boolean enabled = true;
+    private boolean paused = false;
+    private long timeoutMillis = 10000;
+    private long pausedAt = 0;                          //nanoTime of the X-Off
+
+    //metrics
+    private long pauses = 0;
+    private long timeouts = 0;
+    private long waitNanos = 0;
+
+    synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled)
+            resume();
+    }
+
+    synchronized void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    synchronized void pause() {
+        if (enabled && !paused) {
+            paused = true;
+            pausedAt = System.nanoTime();
+            pauses++;
+        }
+    }
+
+    synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    //Look for X-On/X-Off in bytes read from the printer.  The last one seen decides.
+    void scan(byte[] data, int offset, int length) {
+        int last = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] == XON || data[i] == XOFF)
+                last = data[i];
+        }
+        Apply(last);
+    }
+
+    void scan(char[] data, int offset, int length) {
+        int last = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] == XON || data[i] == XOFF)
+                last = data[i];
+        }
+        Apply(last);
+    }
+
+    //Wait while the printer has asked for a pause.  Returns false if the wait timed out or was interrupted.
+    synchronized boolean await() {
+        if (!paused)
+            return (true);
+
+        long start = System.nanoTime();
+        long deadline = start + timeoutMillis * 1000000L;
+        try {
+            while (paused) {
+                if (timeoutMillis == 0) {
+                    wait();
+                    continue;
+                }
+                long wait = (deadline - System.nanoTime()) / 1000000L;
+                if (wait <= 0) {
+                    timeouts++;
+                    paused = false;                     //X-On presumed lost
+                    return (false);
+                }
+                wait(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return (false);
+        } finally {
+            waitNanos += System.nanoTime() - start;
+        }
+        return (true);
+    }
+
+    //await() without waiting.  True if writing may go on; a pause that has outlasted the timeout ends
+    //here and is counted, the same as in await().
+    synchronized boolean ready() {
+        if (!paused)
+            return (true);
+        if (timeoutMillis == 0 || System.nanoTime() - pausedAt < timeoutMillis * 1000000L)
+            return (false);
+        timeouts++;
+        paused = false;                                 //X-On presumed lost
+        return (true);
+    }
+
+    synchronized boolean isPaused() {
+        return (paused);
+    }
+
+    synchronized long getPauseCount() {
+        return (pauses);
+    }
+
+    synchronized long getTimeoutCount() {
+        return (timeouts);
+    }
+
+    //Total time writers spent waiting for X-On
+    synchronized long getWaitNanos() {
+        return (waitNanos);
+    }
+
+    private void Apply(int status) {
+        if (status == XOFF)
+            pause();
+        else if (status == XON)
+            resume();
+    }
+}
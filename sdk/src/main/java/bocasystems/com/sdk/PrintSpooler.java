@@ -0,0 +1,532 @@
+package bocasystems.com.sdk;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+//7.0 Crash-safe print spooler.  Each job's encoded FGL is written to its own payload file and its state
+//changes (queued, sending, acknowledged, failed) are appended to a journal, so after the app is killed
+//the spooler knows which tickets were never sent and which may already have printed.
+//
+//Journal appends are batched: one thread writes everything appended since the last write and then
+//forces it to disk once, so many jobs share one fsync.  enqueue, markSending and requeue wait until
+//their record is on disk.  markAcknowledged and markFailed do not wait; if their record is lost in a
+//crash the job comes back as uncertain, never as queued, so it is not printed twice by accident.
+//
+//BocaSystemsSDK.SetPrintSpooler journals every SendTicket this way by itself.  Used directly, with a
+//PrinterManager printer thread:
+//
+//    PrintSpooler.SpoolJob job = spooler.enqueue("Gate 1", bytes);
+//    ...
+//    spooler.markSending(job);
+//    printer.SendData(job.readPayload(), false);
+//    ...when the printer ACKs the ticket
+//    spooler.markAcknowledged(job);
+//
+//When the spooler is opened again getQueued() returns the jobs to resume and getUncertain() the jobs
+//that were being sent, which the application can requeue or discard.  Failed jobs stay in the spool,
+//payload included, until they are requeued or discarded.
+public class PrintSpooler implements Closeable {
+
+    public static final int QUEUED = 0;
+    public static final int SENDING = 1;
+    public static final int ACKNOWLEDGED = 2;
+    public static final int FAILED = 3;
+
+    private static final String JOURNAL = "journal.log";
+    private static final String PAYLOAD = ".fgl";
+    private static final int COMPACT_FINISHED = 1000;       //acknowledged or discarded jobs before the journal is rewritten
+    private static final boolean NIO_FILES = HasNioFiles(); //java.nio.file, Android 8.0 and the JVM
+
+    private final File directory;
+    private final File journalFile;
+    private FileChannel journal;                            //commit thread only after open
+    private final LinkedHashMap<Long, SpoolJob> jobs = new LinkedHashMap<Long, SpoolJob>();
+    private long nextId = 1;
+    private int finished = 0;                               //acknowledged or discarded jobs still in the journal
+    private final HashSet<Long> writing = new HashSet<Long>();  //payloads being written, not journaled yet
+
+    //group commit, guarded by jobs
+    private final StringBuilder pending = new StringBuilder();
+    private long appended = 0;                              //records appended
+    private long durable = 0;                               //records forced to disk
+    private boolean closing = false;
+    private IOException error;
+    private final Thread commitThread;
+
+    //metrics
+    private long commits = 0;
+    private long records = 0;
+
+    //One spooled ticket
+    public class SpoolJob {
+        private final long id;
+        private final String printer;
+        private int state;
+
+        private SpoolJob(long id, String printer, int state) {
+            this.id = id;
+            this.printer = printer;
+            this.state = state;
+        }
+
+        public long getId() {
+            return (id);
+        }
+
+        public String getPrinter() {
+            return (printer);
+        }
+
+        public int getState() {
+            synchronized (jobs) {
+                return (state);
+            }
+        }
+
+        public File getPayloadFile() {
+            return (new File(directory, id + PAYLOAD));
+        }
+
+        public byte[] readPayload() throws IOException {
+            InputStream in = new FileInputStream(getPayloadFile());
+            try {
+                return (BocaSystemsSDK.ReadFully(in));
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    //Open the spool in directory, replaying its journal if there is one
+    public PrintSpooler(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can not create spool directory " + directory);
+        journalFile = new File(directory, JOURNAL);
+
+        Recover();
+        Compact();
+        journal = new RandomAccessFile(journalFile, "rw").getChannel();
+        journal.position(journal.size());
+
+        commitThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Commit();
+            }
+        }, "BocaSpoolJournal");
+        commitThread.setDaemon(true);
+        commitThread.start();
+    }
+
+    //Store a ticket for a printer.  Returns once the payload and the journal record are on disk.
+    public SpoolJob enqueue(String printer, byte[] payload) throws IOException {
+        long id;
+        synchronized (jobs) {
+            id = nextId++;
+            writing.add(id);
+        }
+
+        SpoolJob job = new SpoolJob(id, printer, QUEUED);
+        long record;
+        try {
+            FileOutputStream out = new FileOutputStream(job.getPayloadFile());
+            try {
+                out.write(payload);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            synchronized (jobs) {
+                jobs.put(id, job);
+                record = Append("Q " + id + " " + Encode(printer));
+            }
+        } finally {
+            synchronized (jobs) {
+                writing.remove(id);
+            }
+        }
+        AwaitDurable(record);
+        return (job);
+    }
+
+    //Record that the ticket is about to be sent.  Returns once the record is on disk.
+    public void markSending(SpoolJob job) throws IOException {
+        AwaitDurable(SetState(job, SENDING, "S"));
+    }
+
+    //The printer acknowledged the ticket.  The record is written with the next batch.
+    public void markAcknowledged(SpoolJob job) throws IOException {
+        SetState(job, ACKNOWLEDGED, "A");
+    }
+
+    //Give up on the ticket.  The record is written with the next batch.
+    public void markFailed(SpoolJob job) throws IOException {
+        SetState(job, FAILED, "F");
+    }
+
+    //Put an uncertain or failed ticket back in the queue.  Returns once the record is on disk.
+    public void requeue(SpoolJob job) throws IOException {
+        AwaitDurable(SetState(job, QUEUED, "R"));
+    }
+
+    //Remove a ticket from the spool without printing it, for example a failed or uncertain one the
+    //application has given up on.  Its payload is deleted when the journal is next rewritten.
+    //Returns once the record is on disk.
+    public void discard(SpoolJob job) throws IOException {
+        long record;
+        synchronized (jobs) {
+            if (jobs.get(job.id) != job)
+                return;                                     //discarded or compacted away already
+            jobs.remove(job.id);
+            if (job.state != ACKNOWLEDGED)
+                finished++;
+            record = Append("D " + job.id);
+        }
+        AwaitDurable(record);
+    }
+
+    //Jobs waiting to be sent, oldest first
+    public List<SpoolJob> getQueued() {
+        return (GetJobs(QUEUED));
+    }
+
+    //Jobs that were being sent without an ACK recorded.  After a restart these may or may not have printed.
+    public List<SpoolJob> getUncertain() {
+        return (GetJobs(SENDING));
+    }
+
+    //Jobs marked failed, kept until they are requeued or discarded
+    public List<SpoolJob> getFailed() {
+        return (GetJobs(FAILED));
+    }
+
+    //Wait until every record appended so far is on disk
+    public void sync() throws IOException {
+        long record;
+        synchronized (jobs) {
+            record = appended;
+        }
+        AwaitDurable(record);
+    }
+
+    //Journal writes and records so far, records per commit shows how well appends are batched
+    public long getCommitCount() {
+        synchronized (jobs) {
+            return (commits);
+        }
+    }
+
+    public long getRecordCount() {
+        synchronized (jobs) {
+            return (records);
+        }
+    }
+
+    //Write what is pending and close the journal
+    @Override
+    public void close() throws IOException {
+        synchronized (jobs) {
+            closing = true;
+            jobs.notifyAll();
+        }
+        try {
+            commitThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+        if (error != null)
+            throw error;
+    }
+
+    private long SetState(SpoolJob job, int state, String code) throws IOException {
+        synchronized (jobs) {
+            if (jobs.get(job.id) != job) {
+                if (job.state >= ACKNOWLEDGED && state != QUEUED)
+                    return (appended);                      //finished and compacted or discarded already
+                throw new IllegalStateException("Job " + job.id + " is not in the spool");
+            }
+            if (job.state >= ACKNOWLEDGED && state != QUEUED)
+                return (appended);                          //acknowledged or failed, only requeue changes it
+            if (state == ACKNOWLEDGED)
+                finished++;
+            else if (job.state == ACKNOWLEDGED)
+                finished--;
+            job.state = state;
+            return (Append(code + " " + job.id));
+        }
+    }
+
+    private List<SpoolJob> GetJobs(int state) {
+        List<SpoolJob> list = new ArrayList<SpoolJob>();
+        synchronized (jobs) {
+            for (SpoolJob job : jobs.values()) {
+                if (job.state == state)
+                    list.add(job);
+            }
+        }
+        return (list);
+    }
+
+    //caller holds jobs
+    private long Append(String record) throws IOException {
+        if (error != null)
+            throw error;
+        if (closing)
+            throw new IOException("Spooler is closed");
+        pending.append(record).append('\n');
+        jobs.notifyAll();
+        return (++appended);
+    }
+
+    private void AwaitDurable(long record) throws IOException {
+        synchronized (jobs) {
+            try {
+                while (durable < record && error == null)
+                    jobs.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for the spool journal");
+            }
+            if (error != null)
+                throw error;
+        }
+    }
+
+    //Journal thread: write and force everything appended since the last pass
+    private void Commit() {
+        while (true) {
+            String batch;
+            long last;
+            boolean compact;
+            synchronized (jobs) {
+                try {
+                    while (pending.length() == 0 && !closing)
+                        jobs.wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (pending.length() == 0)
+                    return;                                 //closing with nothing left
+                batch = pending.toString();
+                pending.setLength(0);
+                last = appended;
+                compact = finished >= COMPACT_FINISHED && finished > jobs.size() / 2;
+            }
+
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(batch.getBytes("ISO-8859-1"));
+                while (bytes.hasRemaining())
+                    journal.write(bytes);
+                journal.force(false);
+                if (compact) {
+                    journal.close();
+                    Compact();
+                    journal = new RandomAccessFile(journalFile, "rw").getChannel();
+                    journal.position(journal.size());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                synchronized (jobs) {
+                    error = e;
+                    jobs.notifyAll();
+                }
+                return;
+            }
+
+            synchronized (jobs) {
+                commits++;
+                records += last - durable;
+                durable = last;
+                jobs.notifyAll();
+            }
+        }
+    }
+
+    //Replay the journal.  A record cut off by a crash is dropped and the file truncated after the last good one.
+    private void Recover() throws IOException {
+        if (!journalFile.exists())
+            return;
+
+        byte[] data;
+        InputStream in = new FileInputStream(journalFile);
+        try {
+            data = BocaSystemsSDK.ReadFully(in);
+        } finally {
+            in.close();
+        }
+
+        int start = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != '\n')
+                continue;
+            Replay(new String(data, start, i - start, "ISO-8859-1"));
+            start = i + 1;
+        }
+        if (start < data.length) {
+            RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            try {
+                file.setLength(start);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private void Replay(String record) throws UnsupportedEncodingException {
+        String[] parts = record.split(" ");
+        if (parts.length < 2)
+            return;
+        long id;
+        try {
+            id = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        if (parts[0].equals("N")) {
+            nextId = Math.max(nextId, id);
+            return;
+        }
+        if (parts[0].equals("Q") && parts.length == 3) {
+            jobs.put(id, new SpoolJob(id, URLDecoder.decode(parts[2], "UTF-8"), QUEUED));
+            nextId = Math.max(nextId, id + 1);
+            return;
+        }
+
+        SpoolJob job = jobs.get(id);
+        if (job == null)
+            return;
+        if (parts[0].equals("S"))
+            job.state = SENDING;
+        else if (parts[0].equals("A"))
+            job.state = ACKNOWLEDGED;
+        else if (parts[0].equals("F"))
+            job.state = FAILED;
+        else if (parts[0].equals("R"))
+            job.state = QUEUED;
+        else if (parts[0].equals("D"))
+            jobs.remove(id);
+    }
+
+    //Rewrite the journal without the acknowledged and discarded jobs, then delete payloads nothing refers to
+    private void Compact() throws IOException {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        synchronized (jobs) {
+            Iterator<SpoolJob> iterator = jobs.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().state == ACKNOWLEDGED)
+                    iterator.remove();
+            }
+            finished = 0;
+
+            StringBuilder text = new StringBuilder();
+            text.append("N ").append(nextId).append('\n');
+            for (SpoolJob job : jobs.values()) {
+                text.append("Q ").append(job.id).append(' ').append(Encode(job.printer)).append('\n');
+                if (job.state == SENDING)
+                    text.append("S ").append(job.id).append('\n');
+                else if (job.state == FAILED)
+                    text.append("F ").append(job.id).append('\n');
+            }
+            snapshot.write(text.toString().getBytes("ISO-8859-1"));
+        }
+
+        File temp = new File(directory, JOURNAL + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            snapshot.writeTo(out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(journalFile))
+            throw new IOException("Can not replace " + journalFile);
+        SyncDirectory();
+
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(PAYLOAD))
+                continue;
+            try {
+                long id = Long.parseLong(name.substring(0, name.length() - PAYLOAD.length()));
+                boolean live;
+                synchronized (jobs) {
+                    live = jobs.containsKey(id) || writing.contains(id) || id >= nextId;
+                }
+                if (!live && !file.delete())
+                    file.deleteOnExit();
+            } catch (NumberFormatException e) {
+                //not ours
+            }
+        }
+    }
+
+    //A rename is only on disk once the directory holding it is, otherwise a power cut could bring back the
+    //old journal without the records written to the new one since.  java.io can not open a directory, so
+    //this uses java.nio.file where there is one and android.system.Os before Android 8.0.
+    private void SyncDirectory() throws IOException {
+        if (NIO_FILES) {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            return;
+        }
+        try {
+            FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            throw new IOException("Can not sync " + directory, e);
+        }
+    }
+
+    private static boolean HasNioFiles() {
+        try {
+            Class.forName("java.nio.file.Files");
+            return (true);
+        } catch (ClassNotFoundException e) {
+            return (false);
+        }
+    }
+
+    private static String Encode(String printer) {
+        try {
+            return (URLEncoder.encode(printer, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
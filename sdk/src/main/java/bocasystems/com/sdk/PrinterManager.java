@@ -0,0 +1,215 @@
+package bocasystems.com.sdk;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+//7.0 Drives several printers from one application.  Each printer is its own BocaSystemsSDK session with
+//its own connection, read thread, status and configuration, created by the SessionFactory.
+//
+//Every printer has one worker thread.  Opening, closing and jobs for a printer run on that thread in the
+//order they were submitted, while different printers open, encode and transmit in parallel.  Wi-Fi
+//sessions share one WifiSelector, so all of their reads and writes run on one selector thread instead
+//of a socket, read thread and writer thread per printer:
+//
+//    PrinterManager printers = new PrinterManager(context, factory);
+//    printers.OpenSessionWIFI("Gate 1", "192.168.1.50");
+//    printers.OpenSessionWIFI("Gate 2", "192.168.1.51");
+//    printers.Submit("Gate 2", new PrinterManager.Job() {
+//        public boolean Print(BocaSystemsSDK printer) {
+//            return (printer.SendFile(path, 0, 0));
+//        }
+//    });
+public class PrinterManager {
+
+    //Creates the session for a named printer, normally the application's BocaSystemsSDK subclass
+    public interface SessionFactory {
+        BocaSystemsSDK NewSession(String name);
+    }
+
+    //Work to run against one printer's session on that printer's thread
+    public interface Job {
+        boolean Print(BocaSystemsSDK printer) throws Exception;
+    }
+
+    private static class Printer {
+        final BocaSystemsSDK session;
+        final ExecutorService thread;
+
+        Printer(BocaSystemsSDK session, ExecutorService thread) {
+            this.session = session;
+            this.thread = thread;
+        }
+    }
+
+    private final Context context;
+    private final SessionFactory factory;
+    private final LinkedHashMap<String, Printer> printers = new LinkedHashMap<String, Printer>();
+    private WifiSelector selector;                      //guarded by this, created with the first session
+
+    public PrinterManager(Context context, SessionFactory factory) {
+        this.context = context.getApplicationContext();
+        this.factory = factory;
+    }
+
+    public Future<Boolean> OpenSessionWIFI(String name, final String ipAddress) {
+        return (Submit(name, new Job() {
+            @Override
+            public boolean Print(BocaSystemsSDK printer) {
+                return (printer.OpenSessionWIFI(ipAddress, context));
+            }
+        }));
+    }
+
+    //device is the paired device string the Bluetooth sample lists, name followed by the address
+    public Future<Boolean> OpenSessionBT(String name, final String device) {
+        return (Submit(name, new Job() {
+            @Override
+            public boolean Print(BocaSystemsSDK printer) {
+                return (printer.OpenSessionBT(device, context));
+            }
+        }));
+    }
+
+    public Future<Boolean> OpenSessionUSB(String name) {
+        return (Submit(name, new Job() {
+            @Override
+            public boolean Print(BocaSystemsSDK printer) {
+                return (printer.OpenSessionUSB(context));
+            }
+        }));
+    }
+
+    //Queue a job for the named printer, creating its session on first use
+    public Future<Boolean> Submit(String name, final Job job) {
+        final Printer printer = GetPrinter(name, true);
+        return (printer.thread.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return (job.Print(printer.session));
+            }
+        }));
+    }
+
+    //Queue the same job for every printer
+    public List<Future<Boolean>> SubmitAll(Job job) {
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (String name : GetPrinterNames())
+            results.add(Submit(name, job));
+        return (results);
+    }
+
+    //Session for the named printer, or null if there is none
+    public BocaSystemsSDK GetSession(String name) {
+        Printer printer = GetPrinter(name, false);
+        return (printer == null ? null : printer.session);
+    }
+
+    public synchronized List<String> GetPrinterNames() {
+        return (new ArrayList<String>(printers.keySet()));
+    }
+
+    //Close the printer's session after the jobs already queued for it and forget it
+    public Future<Boolean> CloseSession(String name) {
+        final Printer printer;
+        synchronized (this) {
+            printer = printers.remove(name);
+        }
+        if (printer == null)
+            return (null);
+
+        Future<Boolean> result = printer.thread.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                Close(printer.session);
+                return (true);
+            }
+        });
+        printer.thread.shutdown();
+        return (result);
+    }
+
+    //Close every session, waiting up to timeoutMillis for queued jobs to finish
+    public void CloseAll(long timeoutMillis) {
+        List<Future<Boolean>> closing = new ArrayList<Future<Boolean>>();
+        for (String name : GetPrinterNames()) {
+            Future<Boolean> result = CloseSession(name);
+            if (result != null)
+                closing.add(result);
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Future<Boolean> result : closing) {
+            try {
+                result.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        //sessions opened from now on get a new selector
+        WifiSelector closed;
+        synchronized (this) {
+            closed = printers.isEmpty() ? selector : null;
+            if (closed != null)
+                selector = null;
+        }
+        if (closed != null)
+            closed.close();
+    }
+
+    private synchronized Printer GetPrinter(final String name, boolean create) {
+        Printer printer = printers.get(name);
+        if (printer == null && create) {
+            ExecutorService thread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread worker = new Thread(runnable, "BocaPrinter-" + name);
+                    worker.setDaemon(true);
+                    return (worker);
+                }
+            });
+            printer = new Printer(factory.NewSession(name), thread);
+            printer.session.SetWifiSelector(Selector());
+            printers.put(name, printer);
+        }
+        return (printer);
+    }
+
+    //The shared selector, or null if it could not be opened and each session uses its own socket
+    private WifiSelector Selector() {
+        if (selector == null) {
+            try {
+                selector = new WifiSelector();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return (selector);
+    }
+
+    private static void Close(BocaSystemsSDK session) {
+        switch (session.Mode) {
+            case "BT":
+                session.CloseSessionBT();
+                break;
+            case "USB":
+                session.CloseSessionUSB();
+                break;
+            case "WIFI":
+                session.CloseSessionWIFI();
+                break;
+            default:
+                break;
+        }
+    }
+}
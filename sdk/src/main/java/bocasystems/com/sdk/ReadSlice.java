@@ -0,0 +1,75 @@
+package bocasystems.com.sdk;
+
+//7.0 The bytes of one read, handed from a session read thread to the status decoder on the SDK status
+//thread.  The read thread fills a slice taken from the pool and never touches it again, so it can read
+//into its own buffer straight away without overwriting bytes still waiting to be decoded.  The decoder
+//recycles the slice when it is done, so a steady stream of status does not allocate once the pool has filled.
+//If more reads are waiting than the pool holds, new slices are allocated and counted as misses.
+final class ReadSlice {
+
+    static final int CAPACITY = 1024;                   //largest read a slice holds, reads are split to fit
+    private static final int POOL_SIZE = 16;
+    private static final ReadSlice[] pool = new ReadSlice[POOL_SIZE];
+    private static int pooled = 0;
+    private static long misses = 0;
+
+    private final byte[] data = new byte[CAPACITY];
+    private int length = 0;
+
+    private ReadSlice() {
+    }
+
+    private static ReadSlice Obtain() {
+        synchronized (pool) {
+            if (pooled > 0) {
+                ReadSlice slice = pool[--pooled];
+                pool[pooled] = null;
+                return (slice);
+            }
+            misses++;
+        }
+        return (new ReadSlice());
+    }
+
+    //A slice holding a copy of up to CAPACITY bytes of buffer
+    static ReadSlice obtain(byte[] buffer, int offset, int count) {
+        ReadSlice slice = Obtain();
+        slice.length = Math.min(count, CAPACITY);
+        System.arraycopy(buffer, offset, slice.data, 0, slice.length);
+        return (slice);
+    }
+
+    //Wi-Fi reads ISO-8859-1 chars, one per byte
+    static ReadSlice obtain(char[] buffer, int offset, int count) {
+        ReadSlice slice = Obtain();
+        slice.length = Math.min(count, CAPACITY);
+        for (int i = 0; i < slice.length; i++)
+            slice.data[i] = (byte) buffer[offset + i];
+        return (slice);
+    }
+
+    //The bytes read, valid up to length().  Read only.
+    byte[] data() {
+        return (data);
+    }
+
+    int length() {
+        return (length);
+    }
+
+    //Give the slice back to the pool.  It must not be used afterwards.
+    void recycle() {
+        length = 0;
+        synchronized (pool) {
+            if (pooled < POOL_SIZE)
+                pool[pooled++] = this;
+        }
+    }
+
+    //Slices allocated because the pool was empty
+    static long getMissCount() {
+        synchronized (pool) {
+            return (misses);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package bocasystems.com.sdk;
+
+import java.util.Random;
+
+//7.0 Reopens a dropped session from its own thread, "BocaReconnect".  Attempts are spaced by an
+//exponential backoff with jitter: the delay doubles from initialDelay up to maxDelay, and each wait is
+//a random time between half and all of it, so many tablets that lost the same access point do not
+//retry in step.
+//
+//wake() starts the next attempt straight away.  The session calls it when the system reports the link
+//is back (Bluetooth ACL connected, USB attached, network connected), so recovery does not wait out the
+//backoff.
+class Reconnector {
+
+    interface Target {
+        //One reconnect attempt, true once the session is open again
+        boolean Reopen();
+
+        //Reconnecting stopped, reconnected is false when the attempts ran out or stop() was called
+        void Finished(boolean reconnected);
+    }
+
+    private final Target target;
+    private final Random random = new Random();
+    private long initialDelay = 100;
+    private long maxDelay = 5000;
+    private int maxAttempts = 0;
+
+    private Thread thread;
+    private boolean woken = false;
+    private boolean stopped = false;
+
+    //metrics
+    private long attempts = 0;
+    private long reconnects = 0;
+    private long lastOutageNanos = 0;
+
+    Reconnector(Target target) {
+        this.target = target;
+    }
+
+    //maxAttempts of 0 keeps trying until stop()
+    synchronized void setBackoff(long initialDelayMillis, long maxDelayMillis, int maxAttempts) {
+        initialDelay = Math.max(1, initialDelayMillis);
+        maxDelay = Math.max(initialDelay, maxDelayMillis);
+        this.maxAttempts = maxAttempts;
+    }
+
+    //Start reconnecting, unless already doing so.  Returns false if it was already running.
+    synchronized boolean start() {
+        if (thread != null)
+            return (false);
+        stopped = false;
+        woken = false;
+        final long start = System.nanoTime();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Run(start);
+            }
+        }, "BocaReconnect");
+        thread.setDaemon(true);
+        thread.start();
+        return (true);
+    }
+
+    //The link may be back, try now
+    synchronized void wake() {
+        woken = true;
+        notifyAll();
+    }
+
+    //Give up reconnecting, for example when the session is closed on purpose
+    synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    synchronized boolean isRunning() {
+        return (thread != null);
+    }
+
+    synchronized long getAttemptCount() {
+        return (attempts);
+    }
+
+    synchronized long getReconnectCount() {
+        return (reconnects);
+    }
+
+    //Time from the drop to the last successful reconnect
+    synchronized long getLastOutageNanos() {
+        return (lastOutageNanos);
+    }
+
+    //Jittered wait before the given retry, 0 based
+    long Delay(int retry) {
+        long delay;
+        synchronized (this) {
+            delay = initialDelay << Math.min(retry, 20);
+            if (delay > maxDelay || delay <= 0)
+                delay = maxDelay;
+        }
+        long half = delay / 2;
+        return (half + (long) (random.nextDouble() * (delay - half)));
+    }
+
+    private void Run(long start) {
+        boolean reconnected = false;
+        int retry = 0;
+        try {
+            while (true) {
+                synchronized (this) {
+                    long deadline = System.currentTimeMillis() + Delay(retry);
+                    while (!woken && !stopped) {
+                        long wait = deadline - System.currentTimeMillis();
+                        if (wait <= 0)
+                            break;
+                        wait(wait);
+                    }
+                    woken = false;
+                    if (stopped || (maxAttempts > 0 && retry >= maxAttempts))
+                        break;
+                    attempts++;
+                }
+                retry++;
+                if (target.Reopen()) {
+                    reconnected = true;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            //stopped
+        }
+
+        synchronized (this) {
+            if (reconnected) {
+                reconnects++;
+                lastOutageNanos = System.nanoTime() - start;
+            }
+            thread = null;
+        }
+        target.Finished(reconnected);
+    }
+}
@@ -0,0 +1,88 @@
+package bocasystems.com.sdk;
+
+//7.0 Turns bytes read from the printer into StatusEvents, the same way for every transport.
+//
+//Status bytes are looked up in a table of shared events.  Printable bytes (32 to 127) are text the
+//printer sent back; they wait in a byte ring buffer until a control byte ends the line, so a line that
+//arrives over several reads is reported once, whole.  Bytes 128 and up end a line and are otherwise
+//ignored, as are control bytes with no status.  The only allocation is the String of a finished line.
+//
+//A line longer than the ring is reported in pieces.  Text with no line end is reported by flush(), which
+//the session calls when the printer has gone quiet.  Not thread safe, decode and flush from one thread.
+class StatusDecoder {
+
+    interface Sink {
+        void Status(StatusEvent event);
+    }
+
+    private static final StatusEvent[] TABLE = new StatusEvent[32];
+
+    static {
+        Define(StatusEvent.TICKET_ACK, "Ticket ACK");
+        Define(StatusEvent.OUT_OF_TICKETS, "Out of Tickets");
+        Define(StatusEvent.XON, "X-On");
+        Define(StatusEvent.POWER_ON, "Power On");
+        Define(StatusEvent.XOFF, "X-Off");
+        Define(StatusEvent.TICKET_NAK, "Ticket NAK");
+        Define(StatusEvent.TICKET_JAM, "Ticket Jam");
+        Define(StatusEvent.ILLEGAL_DATA, "Illegal Data");
+        Define(StatusEvent.POWER_UP_PROBLEM, "Power Up Problem");
+        Define(StatusEvent.TICKET_NAK_ALT, "Ticket NAK");
+        Define(StatusEvent.DOWNLOADING_ERROR, "Downloading Error");
+        Define(StatusEvent.CUTTER_JAM, "Cutter Jam");
+    }
+
+    private static void Define(int code, String text) {
+        TABLE[code] = new StatusEvent(code, text);
+    }
+
+    private final Sink sink;
+    private final byte[] ring;
+    private final char[] line;                          //scratch for building the String of a line
+    private int head = 0;                               //first byte of the pending line
+    private int count = 0;                              //bytes of the pending line
+
+    StatusDecoder(int capacity, Sink sink) {
+        this.sink = sink;
+        ring = new byte[capacity];
+        line = new char[capacity];
+    }
+
+    //Status event for a status byte, null if the byte is not one
+    static StatusEvent lookup(int code) {
+        return (code >= 0 && code < TABLE.length ? TABLE[code] : null);
+    }
+
+    void decode(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            byte x = data[i];
+            if (x >= 32) {
+                if (count == ring.length)
+                    flush();                            //line longer than the ring
+                ring[(head + count) % ring.length] = x;
+                count++;
+                continue;
+            }
+            flush();
+            if (x >= 0 && TABLE[x] != null)
+                sink.Status(TABLE[x]);
+        }
+    }
+
+    //Text received and not yet ended by a control byte
+    boolean hasPendingText() {
+        return (count > 0);
+    }
+
+    //Report any pending text as a line
+    void flush() {
+        if (count == 0)
+            return;
+        for (int i = 0; i < count; i++)
+            line[i] = (char) ring[(head + i) % ring.length];
+        String text = new String(line, 0, count);
+        head = (head + count) % ring.length;
+        count = 0;
+        sink.Status(new StatusEvent(StatusEvent.TEXT, text));
+    }
+}
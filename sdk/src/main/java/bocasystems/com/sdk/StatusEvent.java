@@ -0,0 +1,62 @@
+package bocasystems.com.sdk;
+
+//7.0 One status reported by the printer: a single status byte such as Ticket ACK or Cutter Jam, or a
+//line of text the printer sent back.  The single byte events are shared constants, so decoding them
+//allocates nothing.  Events are immutable and may be kept or passed between threads.
+public final class StatusEvent {
+
+    //Types, the status byte the printer sends for each
+    public static final int TEXT = -1;
+    public static final int TICKET_ACK = 6;
+    public static final int OUT_OF_TICKETS = 16;
+    public static final int XON = 17;
+    public static final int POWER_ON = 18;
+    public static final int XOFF = 19;
+    public static final int TICKET_NAK = 21;
+    public static final int TICKET_JAM = 24;
+    public static final int ILLEGAL_DATA = 25;
+    public static final int POWER_UP_PROBLEM = 26;
+    public static final int TICKET_NAK_ALT = 27;       //NAK from printers set for the alternate code
+    public static final int DOWNLOADING_ERROR = 28;
+    public static final int CUTTER_JAM = 29;
+
+    private final int type;
+    private final String text;
+
+    StatusEvent(int type, String text) {
+        this.type = type;
+        this.text = text;
+    }
+
+    //One of the types above
+    public int getType() {
+        return (type);
+    }
+
+    //The line the printer sent for TEXT, otherwise the status name, e.g. "Ticket Jam"
+    public String getText() {
+        return (text);
+    }
+
+    //Ticket NAK, jams and other conditions that need attention
+    public boolean isError() {
+        switch (type) {
+            case OUT_OF_TICKETS:
+            case TICKET_NAK:
+            case TICKET_JAM:
+            case ILLEGAL_DATA:
+            case POWER_UP_PROBLEM:
+            case TICKET_NAK_ALT:
+            case DOWNLOADING_ERROR:
+            case CUTTER_JAM:
+                return (true);
+            default:
+                return (false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (text);
+    }
+}
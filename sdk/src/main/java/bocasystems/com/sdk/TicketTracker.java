@@ -0,0 +1,350 @@
+package bocasystems.com.sdk;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+//7.0 Matches the printer's per-ticket ACK (6), NAK (21, 27) and jam (24, 29) responses to tickets in the
+//order they were sent.  Up to window tickets may be unanswered at once; begin() waits for the oldest to be
+//answered before another is sent, so the printer always has work queued without an unbounded backlog.
+//That wait is bounded, 2 seconds by default, so a caller on the UI thread is not held until the ACK
+//timeout; a ticket that gets no room in time is returned already failed and must not be sent.
+//
+//Each ticket is a Future that completes with true on ACK and fails with an IOException naming the status
+//on NAK or jam.  A ticket with no answer within the ACK timeout fails, which also frees its place in the
+//window when the printer has ACKs turned off.  Timed out tickets are failed whenever the tracker is used,
+//by begin(), a status byte, the in-flight count or a caller waiting on the ticket, so no ticket waits
+//forever for an answer that is not coming.
+//
+//The printer may still answer a ticket after it timed out.  Such a late answer belongs to the expired
+//ticket, not to the next one in line, so it is counted and dropped.  An expired ticket stops waiting for
+//its late answer one more ACK timeout after it expired.  Only tickets sent through begin() are tracked,
+//so an ACK for data sent another way is matched to the oldest tracked ticket.
+class TicketTracker {
+
+    //Told when a ticket is answered or fails, error is null on ACK.  Called on the thread that completed
+    //the ticket, with the tracker locked, so it must not wait.
+    interface Listener {
+        void TicketDone(Ticket ticket, IOException error);
+    }
+
+    static final int ACK = 6;
+    static final int NAK = 21;
+    static final int NAK_ALT = 27;
+    static final int TICKET_JAM = 24;
+    static final int CUTTER_JAM = 29;
+
+    private final ArrayDeque<Ticket> pending = new ArrayDeque<Ticket>();
+    private final ArrayDeque<Long> expired = new ArrayDeque<Long>();   //until when each late answer is expected
+    private int window = 4;
+    private long ackTimeoutMillis = 30000;
+    private long windowWaitMillis = 2000;
+
+    //metrics
+    private long acknowledged = 0;
+    private long failed = 0;
+    private long latencyNanos = 0;
+    private long late = 0;
+
+    synchronized void setWindow(int tickets) {
+        window = Math.max(1, tickets);
+        notifyAll();
+    }
+
+    //0 waits for an answer indefinitely
+    synchronized void setAckTimeout(long timeoutMillis) {
+        ackTimeoutMillis = timeoutMillis;
+        notifyAll();
+    }
+
+    //How long begin() waits for room in the window, 0 waits indefinitely
+    synchronized void setWindowWait(long waitMillis) {
+        windowWaitMillis = waitMillis;
+    }
+
+    //Wait for room in the window and register the next ticket.  Call before sending the ticket's data.
+    //If the window stays full for the window wait, the ticket returned has already failed with
+    //"Ticket window full" and is not tracked; check isDone() and do not send it.  Returns null if
+    //interrupted.
+    synchronized Ticket begin() {
+        return (begin(null));
+    }
+
+    //The same, telling listener when the ticket completes
+    synchronized Ticket begin(Listener listener) {
+        long until = System.nanoTime() + windowWaitMillis * 1000000L;
+        try {
+            Expire();
+            while (pending.size() >= window) {
+                long wait = 0;                          //until the first ticket times out, 0 for none
+                long now = System.nanoTime();
+                for (Ticket ticket : pending) {
+                    if (ticket.expires && (wait == 0 || ticket.deadline - now < wait))
+                        wait = Math.max(1, ticket.deadline - now);
+                }
+                if (windowWaitMillis > 0) {
+                    if (now - until >= 0) {
+                        Ticket refused = new Ticket(this, now, 0, listener);
+                        failed++;
+                        refused.complete(new IOException("Ticket window full"));
+                        return (refused);
+                    }
+                    if (wait == 0 || until - now < wait)
+                        wait = until - now;
+                }
+                if (wait == 0)
+                    wait();
+                else
+                    wait((wait + 999999L) / 1000000L);
+                Expire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return (null);
+        }
+        Ticket ticket = new Ticket(this, System.nanoTime(), ackTimeoutMillis, listener);
+        pending.add(ticket);
+        return (ticket);
+    }
+
+    //Look for ticket responses in bytes read from the printer
+    void scan(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++)
+            status(data[i]);
+    }
+
+    void scan(char[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++)
+            status(data[i]);
+    }
+
+    //One status byte from the printer.  Anything other than a ticket response is ignored.
+    synchronized void status(int status) {
+        switch (status) {
+            case ACK:
+            case NAK:
+            case NAK_ALT:
+            case TICKET_JAM:
+            case CUTTER_JAM:
+                break;
+            default:
+                return;
+        }
+        Expire();
+        if (Late())
+            return;
+        if (pending.isEmpty())
+            return;
+        switch (status) {
+            case ACK:
+                Answer(null);
+                break;
+            case NAK:
+            case NAK_ALT:
+                Answer("Ticket NAK");
+                break;
+            case TICKET_JAM:
+                Answer("Ticket Jam");
+                break;
+            case CUTTER_JAM:
+                Answer("Cutter Jam");
+                break;
+            default:
+                break;
+        }
+    }
+
+    //Fail every unanswered ticket, for example when the session closes
+    synchronized void cancelAll(String reason) {
+        while (!pending.isEmpty())
+            Answer(reason);
+        expired.clear();                                //a new session will not answer them
+    }
+
+    synchronized int getInFlight() {
+        Expire();
+        return (pending.size());
+    }
+
+    synchronized long getAcknowledgedCount() {
+        return (acknowledged);
+    }
+
+    synchronized long getFailedCount() {
+        return (failed);
+    }
+
+    //Answers that arrived for tickets which had already timed out
+    synchronized long getLateCount() {
+        return (late);
+    }
+
+    //Mean time from begin() to ACK
+    synchronized long getMeanLatencyNanos() {
+        return (acknowledged == 0 ? 0 : latencyNanos / acknowledged);
+    }
+
+    //Tickets still waiting, oldest first
+    synchronized List<Ticket> getPending() {
+        Expire();
+        return (new ArrayList<Ticket>(pending));
+    }
+
+    //Fail the tickets whose ACK timeout has passed.  Answers come in order, so every ticket older than an
+    //overdue one has gone unanswered as long and is failed with it.  Caller holds this.
+    private void Expire() {
+        long now = System.nanoTime();
+        int overdue = 0;
+        int index = 0;
+        for (Ticket ticket : pending) {
+            index++;
+            if (ticket.overdue(now))
+                overdue = index;
+        }
+        for (int i = 0; i < overdue; i++) {
+            expired.add(now + Math.max(pending.peek().timeoutNanos, ackTimeoutMillis * 1000000L));
+            Answer("No ACK");
+        }
+    }
+
+    //Take an answer for an expired ticket, true if there was one still expected.  Caller holds this.
+    private boolean Late() {
+        long now = System.nanoTime();
+        while (!expired.isEmpty() && now - expired.peek() >= 0)
+            expired.poll();                             //gave up on that late answer
+        if (expired.isEmpty())
+            return (false);
+        expired.poll();
+        late++;
+        return (true);
+    }
+
+    private synchronized void Expire(Ticket ticket) {
+        if (!ticket.Completed())
+            Expire();
+    }
+
+    //Complete the oldest ticket, failed when reason is not null
+    private void Answer(String reason) {
+        Ticket ticket = pending.poll();
+        if (reason == null) {
+            acknowledged++;
+            latencyNanos += System.nanoTime() - ticket.sent;
+            ticket.complete(null);
+        } else {
+            failed++;
+            ticket.complete(new IOException(reason));
+        }
+        notifyAll();
+    }
+
+    //Delivery result of one ticket
+    static class Ticket implements Future<Boolean> {
+        private final TicketTracker tracker;
+        private final Listener listener;                //null for none
+        final long sent;
+        final boolean expires;                          //false when the ACK timeout is 0
+        final long timeoutNanos;
+        final long deadline;
+        private boolean done = false;
+        private IOException error;
+
+        private Ticket(TicketTracker tracker, long sent, long timeoutMillis, Listener listener) {
+            this.tracker = tracker;
+            this.listener = listener;
+            this.sent = sent;
+            expires = timeoutMillis > 0;
+            timeoutNanos = timeoutMillis * 1000000L;
+            deadline = sent + timeoutNanos;
+        }
+
+        private boolean overdue(long now) {
+            return (expires && now - deadline >= 0);
+        }
+
+        private synchronized boolean Completed() {
+            return (done);
+        }
+
+        private void complete(IOException error) {
+            synchronized (this) {
+                this.error = error;
+                done = true;
+                notifyAll();
+            }
+            if (listener != null)
+                listener.TicketDone(this, error);
+        }
+
+        //Tickets already handed to the printer cannot be taken back
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return (false);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return (false);
+        }
+
+        @Override
+        public boolean isDone() {
+            if (overdue(System.nanoTime()))
+                tracker.Expire(this);
+            return (Completed());
+        }
+
+        @Override
+        public Boolean get() throws InterruptedException, ExecutionException {
+            return (Await(0));
+        }
+
+        @Override
+        public Boolean get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            Boolean result = Await(Math.max(1, unit.toNanos(timeout)));
+            if (result == null)
+                throw new TimeoutException();
+            return (result);
+        }
+
+        //Wait up to timeoutNanos, 0 for no limit, and null on timeout.  The ticket is expired from here
+        //once its ACK timeout passes, without holding this lock since the tracker locks itself first.
+        private Boolean Await(long timeoutNanos) throws InterruptedException, ExecutionException {
+            long until = System.nanoTime() + timeoutNanos;
+            while (true) {
+                synchronized (this) {
+                    if (done)
+                        return (Result());
+                    long now = System.nanoTime();
+                    if (timeoutNanos > 0 && now - until >= 0)
+                        return (null);
+                    if (!overdue(now)) {
+                        long wait = 0;
+                        if (expires)
+                            wait = deadline - now;
+                        if (timeoutNanos > 0 && (wait == 0 || until - now < wait))
+                            wait = until - now;
+                        if (wait == 0)
+                            wait();
+                        else
+                            wait((wait + 999999L) / 1000000L);
+                        continue;
+                    }
+                }
+                tracker.Expire(this);
+            }
+        }
+
+        private Boolean Result() throws ExecutionException {
+            if (error != null)
+                throw new ExecutionException(error.getMessage(), error);
+            return (true);
+        }
+    }
+}
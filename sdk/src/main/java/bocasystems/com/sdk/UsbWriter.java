@@ -0,0 +1,361 @@
+package bocasystems.com.sdk;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+//7.0 USB output with several bulk transfers in flight.  A synchronous bulkTransfer leaves the bus idle
+//from the end of one chunk until the next is submitted.  Here up to depth chunks are queued with
+//UsbRequest at once, each in its own pooled direct buffer, and the next chunk is queued as soon as one
+//completes, so the host controller always has the next transfer ready.  The chunk size comes from a
+//ChunkTuner, fed the bus time each transfer took.
+//
+//When a transfer fails or sends short, nothing more is queued until every transfer in flight has come
+//back.  Then only the bytes those transfers did not send are sent again, in order, after a pause that
+//doubles with each failure in a row.  On a halted endpoint the transfers queued behind the failed one
+//fail too and are sent again with it; transfers that went through are not repeated.  After maxRetries
+//failures in a row write() gives up.
+class UsbWriter {
+
+    //The parts of the USB request API the writer uses, so the pipeline can also run against a stand-in
+    interface Bus {
+        //Start sending length bytes from buffer in the given slot.  False if it could not be queued.
+        boolean Queue(int slot, ByteBuffer buffer, int length);
+
+        //Wait for a queued transfer to finish, returns its slot or -1 if a transfer failed and it is not
+        //known which
+        int Await();
+
+        //Bytes the finished transfer in slot sent, less than queued for a short or failed transfer
+        int Sent(int slot);
+
+        void Cancel(int slot);
+
+        void Close();
+    }
+
+    private final Bus bus;
+    private final ByteBuffer[] buffers;
+    private final int[] starts;                         //offset in the write of each slot's chunk
+    private final int[] lengths;
+    private final ChunkTuner tuner;
+    private final FlowControl flow;                     //null for no flow control
+    private int maxRetries = 5;
+    private long retryDelay = 10;
+    private long lastCompletion = 0;                    //start of bus time for the next completion
+    private int confirmed = 0;                          //bytes of the last write sent without a gap from its start
+
+    //metrics
+    private long bytes = 0;
+    private long transfers = 0;
+    private long retries = 0;
+
+    UsbWriter(Bus bus, int depth, ChunkTuner tuner, FlowControl flow) {
+        this.bus = bus;
+        this.tuner = tuner;
+        this.flow = flow;
+        buffers = new ByteBuffer[depth];
+        starts = new int[depth];
+        lengths = new int[depth];
+        for (int i = 0; i < depth; i++)
+            buffers[i] = ByteBuffer.allocateDirect(tuner.maxChunk());
+    }
+
+    //Failures in a row before write() gives up, and the pause after the first of them in ms
+    synchronized void setRetryPolicy(int maxRetries, long retryDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.retryDelay = retryDelayMillis;
+    }
+
+    //Send length bytes from data.  Returns when all of it has been transferred, false if the retries
+    //ran out or the caller was interrupted.
+    synchronized boolean write(byte[] data, int offset, int length) {
+        ArrayDeque<Integer> free = new ArrayDeque<Integer>(buffers.length);
+        for (int i = 0; i < buffers.length; i++)
+            free.add(i);
+        ArrayList<Integer> inFlight = new ArrayList<Integer>(buffers.length);  //slots in the order queued
+        ArrayList<int[]> resend = new ArrayList<int[]>();   //{start, length} to send again, oldest first
+        ArrayList<int[]> lost = new ArrayList<int[]>();     //not sent by the transfers of this failure
+        int queued = 0;                                     //new bytes handed to the bus
+        int sent = 0;                                       //bytes the bus has finished sending
+        int failures = 0;
+        boolean failing = false;                            //waiting for the transfers in flight to come back
+        confirmed = 0;
+        lastCompletion = System.nanoTime();
+
+        while (sent < length) {
+            //keep every buffer busy
+            while (!failing && !free.isEmpty() && (!resend.isEmpty() || queued < length)) {
+                if (flow != null) {
+                    //time stopped by X-Off is not bus time
+                    long paused = System.nanoTime();
+                    flow.await();
+                    lastCompletion += System.nanoTime() - paused;
+                }
+                int slot = free.poll();
+                int start;
+                int count;
+                if (!resend.isEmpty()) {
+                    int[] piece = resend.get(0);
+                    start = piece[0];
+                    count = Math.min(tuner.chunk(), piece[1]);
+                    piece[0] += count;
+                    piece[1] -= count;
+                    if (piece[1] == 0)
+                        resend.remove(0);
+                } else {
+                    start = queued;
+                    count = Math.min(tuner.chunk(), length - queued);
+                    queued += count;
+                }
+                ByteBuffer buffer = buffers[slot];
+                buffer.clear();
+                buffer.put(data, offset + start, count);
+                buffer.flip();
+                starts[slot] = start;
+                lengths[slot] = count;
+                if (!bus.Queue(slot, buffer, count)) {
+                    free.addFirst(slot);
+                    lost.add(new int[]{start, count});
+                    failing = true;
+                    break;
+                }
+                inFlight.add(slot);
+            }
+
+            if (!inFlight.isEmpty()) {
+                int slot = bus.Await();
+                int index = inFlight.indexOf(slot);
+                if (index < 0) {
+                    //no telling which transfer failed, cancel the rest.  Those that come back say what
+                    //they sent and only the rest of them is sent again, like a short transfer; the one
+                    //that failed unseen is sent again whole.
+                    for (int busy : inFlight)
+                        bus.Cancel(busy);
+                    for (int i = inFlight.size() - 1; i > 0; i--) {
+                        int back = bus.Await();         //cancelled requests still complete
+                        int at = inFlight.indexOf(back);
+                        if (at < 0)
+                            continue;
+                        inFlight.remove(at);
+                        free.add(back);
+                        sent += Finished(back, lost);
+                    }
+                    for (int busy : inFlight) {
+                        lost.add(new int[]{starts[busy], lengths[busy]});
+                        free.add(busy);
+                    }
+                    inFlight.clear();
+                    failing = true;
+                } else {
+                    inFlight.remove(index);
+                    free.add(slot);
+                    int count = Finished(slot, lost);
+                    sent += count;
+                    if (count < lengths[slot]) {
+                        failing = true;
+                    } else {
+                        if (!failing) {
+                            //bus time includes any gap while the writer was queuing, that is what small chunks cost
+                            long now = System.nanoTime();
+                            tuner.completed(lengths[slot], now - lastCompletion);
+                            lastCompletion = now;
+                            failures = 0;
+                        }
+                    }
+                }
+            }
+            if (!failing || !inFlight.isEmpty())
+                continue;
+
+            //everything from the failure is back, send what it did not, before anything newer
+            Collections.sort(lost, BY_START);
+            resend.addAll(0, lost);
+            lost.clear();
+            failing = false;
+            retries++;
+            failures++;
+            if (failures > maxRetries) {
+                confirmed = Prefix(resend, queued);
+                return (false);
+            }
+            try {
+                Thread.sleep(retryDelay << Math.min(failures - 1, 10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                confirmed = Prefix(resend, queued);
+                return (false);
+            }
+            lastCompletion = System.nanoTime();
+        }
+        confirmed = length;
+        return (true);
+    }
+
+    //Count what the transfer that came back in slot sent and add what it did not to lost.
+    //Returns the bytes sent.
+    private int Finished(int slot, ArrayList<int[]> lost) {
+        int count = Math.max(0, Math.min(bus.Sent(slot), lengths[slot]));
+        bytes += count;
+        if (count < lengths[slot])
+            lost.add(new int[]{starts[slot] + count, lengths[slot] - count});
+        else
+            transfers++;
+        return (count);
+    }
+
+    private static final Comparator<int[]> BY_START = new Comparator<int[]>() {
+        @Override
+        public int compare(int[] a, int[] b) {
+            return (a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1));
+        }
+    };
+
+    //Bytes before the first one still to send
+    private static int Prefix(ArrayList<int[]> resend, int queued) {
+        return (resend.isEmpty() ? queued : Math.min(queued, resend.get(0)[0]));
+    }
+
+    void close() {
+        bus.Close();
+    }
+
+    //Bytes from the start of the last write() that were all sent, all of them unless it returned false.
+    //Some bytes after these may have been sent too.
+    synchronized int getConfirmed() {
+        return (confirmed);
+    }
+
+    synchronized long getBytes() {
+        return (bytes);
+    }
+
+    synchronized long getTransferCount() {
+        return (transfers);
+    }
+
+    synchronized long getRetryCount() {
+        return (retries);
+    }
+
+    ChunkTuner getTuner() {
+        return (tuner);
+    }
+
+    //Bus over UsbRequest.queue and UsbDeviceConnection.requestWait.  The session read thread uses
+    //bulkTransfer, so every request requestWait returns belongs to this writer.  From API 26 requests are
+    //queued with queue(ByteBuffer), which sets the buffer position to the bytes sent, so a short or failed
+    //transfer is seen.  Before that a request that comes back is taken as fully sent.
+    static class RequestBus implements Bus {
+        private final UsbDeviceConnection connection;
+        private final UsbRequest[] requests;
+        private final ByteBuffer[] buffers;
+        private final int[] lengths;
+
+        RequestBus(UsbDeviceConnection connection, UsbEndpoint endpoint, int depth) {
+            this.connection = connection;
+            requests = new UsbRequest[depth];
+            buffers = new ByteBuffer[depth];
+            lengths = new int[depth];
+            for (int i = 0; i < depth; i++) {
+                requests[i] = new UsbRequest();
+                if (!requests[i].initialize(connection, endpoint))
+                    throw new IllegalStateException("UsbRequest initialize failed");
+                requests[i].setClientData(i);
+            }
+        }
+
+        @Override
+        public boolean Queue(int slot, ByteBuffer buffer, int length) {
+            buffers[slot] = buffer;
+            lengths[slot] = length;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                buffer.limit(buffer.position() + length);
+                return (requests[slot].queue(buffer));
+            }
+            return (QueueLength(requests[slot], buffer, length));
+        }
+
+        //queue(ByteBuffer, int) is deprecated from API 26 but the only way before it
+        @SuppressWarnings("deprecation")
+        private static boolean QueueLength(UsbRequest request, ByteBuffer buffer, int length) {
+            return (request.queue(buffer, length));
+        }
+
+        @Override
+        public int Await() {
+            UsbRequest request = connection.requestWait();
+            if (request == null || !(request.getClientData() instanceof Integer))
+                return (-1);
+            return ((Integer) request.getClientData());
+        }
+
+        @Override
+        public int Sent(int slot) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                return (buffers[slot].position());
+            return (lengths[slot]);
+        }
+
+        @Override
+        public void Cancel(int slot) {
+            requests[slot].cancel();
+        }
+
+        @Override
+        public void Close() {
+            for (UsbRequest request : requests)
+                request.close();
+        }
+    }
+
+    //Bus over synchronous bulkTransfer, for when UsbRequest cannot be set up.  Use with a depth of 1.
+    static class TransferBus implements Bus {
+        private final UsbDeviceConnection connection;
+        private final UsbEndpoint endpoint;
+        private final byte[] copy;
+        private int result = -1;
+        private int sent = 0;
+
+        TransferBus(UsbDeviceConnection connection, UsbEndpoint endpoint, int chunk) {
+            this.connection = connection;
+            this.endpoint = endpoint;
+            copy = new byte[chunk];
+        }
+
+        @Override
+        public boolean Queue(int slot, ByteBuffer buffer, int length) {
+            buffer.get(copy, 0, length);
+            sent = Math.max(0, connection.bulkTransfer(endpoint, copy, 0, length, 0));
+            result = slot;
+            return (true);
+        }
+
+        @Override
+        public int Await() {
+            return (result);
+        }
+
+        @Override
+        public int Sent(int slot) {
+            return (sent);
+        }
+
+        @Override
+        public void Cancel(int slot) {
+            //already finished
+        }
+
+        @Override
+        public void Close() {
+            //nothing to release
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package bocasystems.com.sdk;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//7.0 Non-blocking Wi-Fi transport for many printers.  One selector thread connects, reads and writes
+//for every printer instead of a blocking Socket, a read thread and writer thread per printer.
+//
+//Writes are copied into direct ByteBuffers queued per connection and sent when the socket can take
+//them.  Small writes are packed into the same buffer.  A writer waits when its connection already has
+//maxQueuedBytes waiting (backpressure).  Listener callbacks run on the selector thread and must not block.
+//
+//A connection with a FlowControl gate stops writing while the printer has sent X-Off.  The selector
+//thread can not wait for the X-On, so it checks the gate again after every read and every FLOW_CHECK.
+//
+//When a connection fails, or is aborted, whatever was still queued is kept and takeUnsent() returns
+//it, so a reconnected session can send it again.  Bytes already handed to the socket are lost with it.
+//
+//BocaSystemsSDK uses a WifiSelector for its Wi-Fi session when one is given to SetWifiSelector.
+//PrinterManager shares one between all of its printers.
+public class WifiSelector {
+
+    public static final int BUFFER_SIZE = 16384;
+    private static final int POOLED_BUFFERS = 64;
+    private static final long FLOW_CHECK = 50;          //ms between X-On checks while a connection is paused
+    private static final byte[] FORM_FEED = {'<', 'p', '>'};
+
+    public interface Listener {
+        void onConnected(Connection connection);
+
+        //Bytes from the printer.  The buffer is only valid during the call.
+        void onRead(Connection connection, ByteBuffer data);
+
+        //error is null for a normal close
+        void onClosed(Connection connection, IOException error);
+    }
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Connection> changes = new ConcurrentLinkedQueue<Connection>();
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<ByteBuffer>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(4096);
+    private final ArrayList<Connection> paused = new ArrayList<Connection>();  //X-Off, selector thread only
+    private volatile boolean running = true;
+    private int maxQueuedBytes = 1024 * 1024;
+
+    public WifiSelector() throws IOException {
+        selector = Selector.open();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Run();
+            }
+        }, "BocaWifiSelector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //Bytes that may wait in one connection's queue before writers wait.  Default 1MB.
+    public synchronized void setMaxQueuedBytes(int bytes) {
+        maxQueuedBytes = bytes;
+    }
+
+    private synchronized int getMaxQueuedBytes() {
+        return (maxQueuedBytes);
+    }
+
+    //Start connecting to a printer.  Writes may be made straight away, they are sent once connected.
+    public Connection connect(InetSocketAddress address, Listener listener) throws IOException {
+        return (connect(address, listener, null));
+    }
+
+    //The same, with writes gated on the printer's X-On/X-Off.  The listener must scan what is read
+    //into flow.
+    Connection connect(InetSocketAddress address, Listener listener, FlowControl flow) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel, address, listener, flow);
+        Schedule(connection);
+        return (connection);
+    }
+
+    //Close every connection and stop the selector thread
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void Schedule(Connection connection) {
+        changes.add(connection);
+        selector.wakeup();
+    }
+
+    private ByteBuffer TakeBuffer() {
+        synchronized (pool) {
+            ByteBuffer buffer = pool.poll();
+            if (buffer != null)
+                return (buffer);
+        }
+        return (ByteBuffer.allocateDirect(BUFFER_SIZE));
+    }
+
+    private void GiveBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        synchronized (pool) {
+            if (pool.size() < POOLED_BUFFERS)
+                pool.add(buffer);
+        }
+    }
+
+    private void Run() {
+        try {
+            while (running) {
+                if (paused.isEmpty())
+                    selector.select();
+                else
+                    selector.select(FLOW_CHECK);
+
+                Connection change;
+                while ((change = changes.poll()) != null)
+                    change.Update();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable())
+                            connection.Connected();
+                        if (key.isValid() && key.isReadable())
+                            connection.Read();
+                        if (key.isValid() && key.isWritable())
+                            connection.Write();
+                    } catch (IOException e) {
+                        connection.Close(e);
+                    } catch (CancelledKeyException e) {
+                        connection.Close(null);         //aborted from another thread
+                    }
+                }
+                Resume();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ClosedSelectorException e) {
+            //closed
+        }
+
+        for (SelectionKey key : selector.keys())
+            ((Connection) key.attachment()).Close(null);
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //Start writing again on connections whose printer has sent X-On or whose pause has timed out
+    private void Resume() {
+        for (int i = paused.size() - 1; i >= 0; i--) {
+            Connection connection = paused.get(i);
+            if (connection.isClosed()) {
+                paused.remove(i);
+            } else if (connection.flow.ready()) {
+                paused.remove(i);
+                try {
+                    connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                } catch (CancelledKeyException e) {
+                    connection.Close(null);
+                }
+            }
+        }
+    }
+
+    //The bytes left in a buffer that was being filled or sent
+    private static byte[] Remaining(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return (bytes);
+    }
+
+    //One printer connection
+    public class Connection {
+
+        private final SocketChannel channel;
+        private final InetSocketAddress address;
+        private final Listener listener;
+        private final FlowControl flow;                 //null for no flow control
+        private SelectionKey key;                       //selector thread only
+        private ByteBuffer current;                     //buffer being written, selector thread only
+        private boolean reported = false;               //onClosed called, selector thread only
+
+        //guarded by this
+        private ByteBuffer filling;                     //buffer writers are appending to
+        private final ArrayDeque<ByteBuffer> full = new ArrayDeque<ByteBuffer>();
+        private long queuedBytes = 0;
+        private boolean writeScheduled = false;
+        private boolean closeRequested = false;
+        private boolean connected = false;
+        private boolean closed = false;
+        private IOException error;
+        private final ArrayList<byte[]> unsent = new ArrayList<byte[]>();
+
+        private Object attachment;
+
+        private Connection(SocketChannel channel, InetSocketAddress address, Listener listener, FlowControl flow) {
+            this.channel = channel;
+            this.address = address;
+            this.listener = listener;
+            this.flow = flow;
+        }
+
+        public InetSocketAddress getAddress() {
+            return (address);
+        }
+
+        public synchronized void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+
+        public synchronized Object getAttachment() {
+            return (attachment);
+        }
+
+        public boolean write(byte[] data) {
+            return (write(data, 0, data.length));
+        }
+
+        //Copy the bytes into the send queue.  Waits while the queue is full.
+        //Returns false if the connection is closed or the caller is interrupted.
+        public boolean write(byte[] data, int offset, int length) {
+            return (Queue(ByteBuffer.wrap(data, offset, length), false));
+        }
+
+        //The same, formFeed adds <p> after the data in the same queued write
+        public boolean write(byte[] data, int offset, int length, boolean formFeed) {
+            return (Queue(ByteBuffer.wrap(data, offset, length), formFeed));
+        }
+
+        //Copy the remaining bytes of data into the send queue
+        public boolean write(ByteBuffer data) {
+            return (Queue(data, false));
+        }
+
+        private synchronized boolean Queue(ByteBuffer data, boolean formFeed) {
+            int length = data.remaining() + (formFeed ? FORM_FEED.length : 0);
+            try {
+                while (!closed && !closeRequested && queuedBytes > 0 && queuedBytes + length > getMaxQueuedBytes())
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return (false);
+            }
+            if (closed || closeRequested)
+                return (false);
+
+            Append(data);
+            if (formFeed)
+                Append(ByteBuffer.wrap(FORM_FEED));
+            queuedBytes += length;
+
+            if (!writeScheduled) {
+                writeScheduled = true;
+                Schedule(this);
+            }
+            return (true);
+        }
+
+        private void Append(ByteBuffer data) {
+            while (data.hasRemaining()) {
+                if (filling == null)
+                    filling = TakeBuffer();
+                int count = Math.min(filling.remaining(), data.remaining());
+                int limit = data.limit();
+                data.limit(data.position() + count);
+                filling.put(data);
+                data.limit(limit);
+                if (!filling.hasRemaining()) {
+                    filling.flip();
+                    full.add(filling);
+                    filling = null;
+                }
+            }
+        }
+
+        //Wait until the connect has finished, up to timeoutMillis, 0 waits for as long as it takes.
+        //Returns false if the connect failed or timed out, abort() the connection then.
+        public synchronized boolean awaitConnected(long timeoutMillis) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            try {
+                while (!connected && !closed) {
+                    if (timeoutMillis == 0) {
+                        wait();
+                        continue;
+                    }
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0)
+                        return (false);
+                    wait(wait);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return (false);
+            }
+            return (connected && !closed);
+        }
+
+        //Wait until everything queued has been written to the socket.  Returns false on timeout or error.
+        public synchronized boolean flush(long timeoutMillis) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            try {
+                while (queuedBytes > 0 && !closed) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0)
+                        return (false);
+                    wait(wait);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return (false);
+            }
+            return (queuedBytes == 0 && error == null);
+        }
+
+        public synchronized long getQueuedBytes() {
+            return (queuedBytes);
+        }
+
+        //True once connected, also after the connection has closed
+        public synchronized boolean isConnected() {
+            return (connected);
+        }
+
+        public synchronized boolean isClosed() {
+            return (closed);
+        }
+
+        //What was queued but not sent when the connection failed or was aborted, oldest first
+        public synchronized List<byte[]> takeUnsent() {
+            List<byte[]> taken = new ArrayList<byte[]>(unsent);
+            unsent.clear();
+            return (taken);
+        }
+
+        public synchronized IOException getError() {
+            return (error);
+        }
+
+        //Close once everything already queued has been sent
+        public synchronized void close() {
+            if (closed || closeRequested)
+                return;
+            closeRequested = true;
+            notifyAll();
+            Schedule(this);
+        }
+
+        //Close now without sending what is still queued, which is kept for takeUnsent().  The buffer the
+        //selector thread is writing at that moment goes with the socket.  Writers waiting for room are
+        //refused.  The listener is told on the selector thread.
+        public void abort() {
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+                error = new IOException("Connection aborted");
+                Keep();
+                notifyAll();
+            }
+            try {
+                channel.close();                        //the selector thread may be writing, it gets an error
+            } catch (IOException ignored) {
+                //already closed
+            }
+            Schedule(this);
+        }
+
+        //selector thread: register, enable writes or close as asked
+        private void Update() {
+            if (isClosed()) {
+                Report();                               //aborted
+                return;
+            }
+            try {
+                if (key == null) {
+                    key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+                    if (channel.connect(address))
+                        Connected();
+                }
+                boolean closeNow;
+                synchronized (this) {
+                    if (closed)
+                        return;
+                    closeNow = closeRequested && queuedBytes == 0;
+                }
+                if (closeNow) {
+                    Close(null);
+                    return;
+                }
+                if (channel.isConnected())
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                Close(e);
+            } catch (CancelledKeyException e) {
+                Close(null);                            //aborted from another thread
+            }
+        }
+
+        private void Connected() throws IOException {
+            if (!channel.finishConnect())
+                return;
+            int ops = SelectionKey.OP_READ;
+            synchronized (this) {
+                if (queuedBytes > 0)
+                    ops |= SelectionKey.OP_WRITE;
+                connected = true;
+                notifyAll();
+            }
+            key.interestOps(ops);
+            listener.onConnected(this);
+        }
+
+        private void Read() throws IOException {
+            readBuffer.clear();
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                Close(null);
+                return;
+            }
+            readBuffer.flip();
+            if (count > 0)
+                listener.onRead(this, readBuffer);
+        }
+
+        private void Write() throws IOException {
+            while (true) {
+                if (flow != null && !flow.ready()) {
+                    //X-Off, stop writing until Resume finds the gate open.  Checked before a buffer is
+                    //taken from the queue, so an abort while paused keeps all of it.
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    if (!paused.contains(this))
+                        paused.add(this);
+                    return;
+                }
+                if (current == null) {
+                    boolean done = false;
+                    synchronized (this) {
+                        current = full.poll();
+                        if (current == null && filling != null && filling.position() > 0) {
+                            filling.flip();
+                            current = filling;
+                            filling = null;
+                        }
+                        if (current == null) {
+                            //everything sent
+                            writeScheduled = false;
+                            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                            notifyAll();
+                            done = true;
+                        }
+                    }
+                    if (done) {
+                        if (closeRequested)
+                            Close(null);
+                        return;
+                    }
+                }
+
+                int count = channel.write(current);
+                synchronized (this) {
+                    queuedBytes -= count;
+                    notifyAll();
+                }
+                if (current.hasRemaining())
+                    return;                             //socket is full, wait for the next OP_WRITE
+                GiveBuffer(current);
+                current = null;
+            }
+        }
+
+        //selector thread
+        private void Close(IOException e) {
+            synchronized (this) {
+                if (!closed) {
+                    closed = true;
+                    error = e;
+                    if (current != null && current.hasRemaining())
+                        unsent.add(Remaining(current));
+                    Keep();
+                    notifyAll();
+                }
+            }
+            current = null;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                //already closed
+            }
+            Report();
+        }
+
+        //Move what is still queued to unsent, holding the lock
+        private void Keep() {
+            for (ByteBuffer buffer : full)
+                unsent.add(Remaining(buffer));
+            if (filling != null && filling.position() > 0) {
+                filling.flip();
+                unsent.add(Remaining(filling));
+            }
+            full.clear();
+            filling = null;
+            queuedBytes = 0;
+        }
+
+        //selector thread: tell the listener once
+        private void Report() {
+            if (reported)
+                return;
+            reported = true;
+            if (key != null)
+                key.cancel();
+            IOException e;
+            synchronized (this) {
+                e = error;
+            }
+            listener.onClosed(this, e);
+        }
+    }
+}
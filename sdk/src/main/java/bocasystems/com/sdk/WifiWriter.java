@@ -0,0 +1,302 @@
+package bocasystems.com.sdk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//7.0 Single writer thread for a Wi-Fi session.  Writes are queued in a bounded FIFO and sent in order by
+//one thread, instead of starting a new Thread per write with nothing keeping them in order.  When the
+//queue is full the caller waits (backpressure).  The stream is flushed whenever the queue runs empty,
+//so a burst of small writes goes out together.
+//
+//Bytes go straight to the socket stream, normally a BufferedOutputStream.  Strings are encoded one byte
+//per char (ISO-8859-1) into a reused buffer and the <p> form feed is written separately after the data.
+//
+//With a FlowControl gate, data is written in FLOW_BLOCK pieces and the writer waits while the printer
+//has sent X-Off.
+//
+//After a write error nothing more is written.  Writes queued behind the failed one are kept and
+//takeUnsent() returns them, so a reconnected session can send them again.  So are writes still queued
+//when close() gives up waiting, and everything queued when the writer is aborted.
+class WifiWriter {
+
+    private static final byte[] FORM_FEED = {'<', 'p', '>'};
+    private static final int FLOW_BLOCK = 4096;
+    private static final long STOP_WAIT = 100;         //ms for the thread to stop once interrupted
+
+    private final OutputStream out;
+    private final FlowControl flow;                     //null for no flow control
+    private final ArrayBlockingQueue<Entry> queue;
+    private final Thread thread;
+    private final Entry stop = new Entry();
+    private byte[] text = new byte[1024];               //reused ISO-8859-1 encoding of queued Strings
+    private boolean dirty = false;                      //written but not flushed, writer thread only
+    private volatile boolean closed = false;
+    private final AtomicInteger putting = new AtomicInteger();      //Put calls that may still queue an entry
+    private volatile IOException error;
+    private final ArrayList<byte[]> unsent = new ArrayList<byte[]>();  //queued after a write error
+
+    //One queued write, or a flush marker when done is set
+    private static class Entry {
+        String text;
+        byte[] data;
+        int offset;
+        int length;
+        boolean formFeed;
+        CountDownLatch done;
+    }
+
+    WifiWriter(OutputStream out, int capacity) {
+        this(out, capacity, null);
+    }
+
+    WifiWriter(OutputStream out, int capacity, FlowControl flow) {
+        this.out = out;
+        this.flow = flow;
+        queue = new ArrayBlockingQueue<Entry>(capacity);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Run();
+            }
+        }, "BocaWifiWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean write(String text) {
+        Entry entry = new Entry();
+        entry.text = text;
+        return (Put(entry));
+    }
+
+    //The array is written later from the writer thread, so it must not be changed after this call.
+    //formFeed adds <p> after the data.
+    boolean write(byte[] data, int offset, int length, boolean formFeed) {
+        Entry entry = new Entry();
+        entry.data = data;
+        entry.offset = offset;
+        entry.length = length;
+        entry.formFeed = formFeed;
+        return (Put(entry));
+    }
+
+    //Wait until everything queued before this call has been written and flushed.
+    //Returns false on timeout, on a write error or if the writer is closed.
+    boolean flush(long timeoutMillis) {
+        Entry marker = new Entry();
+        marker.done = new CountDownLatch(1);
+        if (!Put(marker))
+            return (false);
+        try {
+            return (marker.done.await(timeoutMillis, TimeUnit.MILLISECONDS) && error == null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return (false);
+        }
+    }
+
+    //Number of writes waiting to be sent
+    int getQueued() {
+        return (queue.size());
+    }
+
+    //First write error, the session has to be reopened after one
+    IOException getError() {
+        return (error);
+    }
+
+    //Writes that were queued but not sent, oldest first, each as the bytes it would have sent.
+    //Call after close() or abort().
+    List<byte[]> takeUnsent() {
+        synchronized (unsent) {
+            List<byte[]> taken = new ArrayList<byte[]>(unsent);
+            unsent.clear();
+            return (taken);
+        }
+    }
+
+    //Send what is queued, waiting up to timeoutMillis, then stop the writer thread.  Writes accepted
+    //before the close are still sent, later ones are refused.
+    void close(long timeoutMillis) {
+        if (closed)
+            return;
+        closed = true;                                  //before the stop marker, so nothing queues behind it
+        try {
+            if (!queue.offer(stop, timeoutMillis, TimeUnit.MILLISECONDS))
+                thread.interrupt();
+            thread.join(timeoutMillis);
+            thread.interrupt();
+            thread.join(STOP_WAIT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            thread.interrupt();
+        }
+        if (!thread.isAlive())
+            Drain();
+    }
+
+    //Close after the connection was lost.  Nothing more is written, everything still queued is kept
+    //for takeUnsent().  Close the socket first, so the writer thread is not left blocked writing to it.
+    void abort(long timeoutMillis) {
+        if (error == null)
+            error = new IOException("Writer aborted");
+        close(timeoutMillis);
+    }
+
+    private boolean Put(Entry entry) {
+        putting.incrementAndGet();
+        try {
+            if (closed || error != null)
+                return (false);
+            queue.put(entry);
+            return (true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return (false);
+        } finally {
+            putting.decrementAndGet();
+        }
+    }
+
+    private void Run() {
+        try {
+            while (true) {
+                Entry entry = queue.poll();
+                if (entry == null) {
+                    Flush();                            //queue ran empty, send what has been written
+                    entry = queue.take();
+                }
+                if (entry == stop) {
+                    Finish();
+                    return;
+                }
+                Handle(entry);
+            }
+        } catch (InterruptedException e) {
+            //closed
+        }
+    }
+
+    //A write that passed the closed check just before close() may land behind the stop marker, or be
+    //waiting for room in a full queue.  Handle those too, until no Put is left that could still queue.
+    private void Finish() throws InterruptedException {
+        while (true) {
+            Entry entry = queue.poll();
+            if (entry == null) {
+                if (putting.get() == 0 && queue.isEmpty())
+                    break;
+                entry = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (entry == null)
+                    continue;
+            }
+            Handle(entry);
+        }
+        Flush();
+    }
+
+    //The writer thread has stopped, keep what it left in the queue.  A Put waiting for room gets it
+    //once the queue is polled, so wait for those too.
+    private void Drain() {
+        try {
+            while (true) {
+                Entry entry = queue.poll();
+                if (entry == null) {
+                    if (putting.get() == 0 && queue.isEmpty())
+                        break;
+                    entry = queue.poll(10, TimeUnit.MILLISECONDS);
+                    if (entry == null)
+                        continue;
+                }
+                if (entry != stop && entry.done == null)
+                    Keep(entry);                        //a flush waiting on a marker times out
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void Handle(Entry entry) {
+        if (entry.done != null) {
+            Flush();
+            entry.done.countDown();
+            return;
+        }
+        if (error == null)
+            Write(entry);
+        else
+            Keep(entry);
+    }
+
+    private void Write(Entry entry) {
+        try {
+            if (entry.text != null) {
+                int length = entry.text.length();
+                if (text.length < length)
+                    text = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    char c = entry.text.charAt(i);
+                    text[i] = (byte) (c <= 0xff ? c : '?');
+                }
+                Send(text, 0, length);
+            } else {
+                Send(entry.data, entry.offset, entry.length);
+            }
+            if (entry.formFeed)
+                Send(FORM_FEED, 0, FORM_FEED.length);
+            dirty = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            error = e;
+        }
+    }
+
+    private void Keep(Entry entry) {
+        byte[] bytes;
+        int length = entry.text != null ? entry.text.length() : entry.length;
+        bytes = new byte[length + (entry.formFeed ? FORM_FEED.length : 0)];
+        if (entry.text != null) {
+            for (int i = 0; i < length; i++) {
+                char c = entry.text.charAt(i);
+                bytes[i] = (byte) (c <= 0xff ? c : '?');
+            }
+        } else {
+            System.arraycopy(entry.data, entry.offset, bytes, 0, length);
+        }
+        if (entry.formFeed)
+            System.arraycopy(FORM_FEED, 0, bytes, length, FORM_FEED.length);
+        synchronized (unsent) {
+            unsent.add(bytes);
+        }
+    }
+
+    private void Send(byte[] data, int offset, int length) throws IOException {
+        if (flow == null) {
+            out.write(data, offset, length);
+            return;
+        }
+        for (int sent = 0; sent < length; sent += FLOW_BLOCK) {
+            flow.await();                               //holds back even what is still in the stream buffer
+            out.write(data, offset + sent, Math.min(FLOW_BLOCK, length - sent));
+        }
+    }
+
+    private void Flush() {
+        if (!dirty || error != null)
+            return;
+        if (flow != null)
+            flow.await();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            error = e;
+        }
+        dirty = false;
+    }
+}
@@ -0,0 +1,98 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the old one character at a time asset read against the chunked read used by
+ * SendAsset and against sending from the preloaded asset cache, for the fgltest600.txt
+ * test ticket printed many times.
+ */
+public class AssetLoadBenchmark {
+
+    private static final File ASSET = new File("../app/src/main/assets/fgltest600.txt");
+    private static final int TICKETS = 1000;
+
+    @Test
+    public void chunkedRead_matchesCharacterRead() throws IOException {
+        byte[] expected = ReadCharacterAtATime().getBytes();
+        InputStream in = new FileInputStream(ASSET);
+        try {
+            assertArrayEquals(expected, BocaSystemsSDK.ReadFully(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_fgltest600() throws IOException {
+        ByteArrayOutputStream transport = new ByteArrayOutputStream();
+        long start;
+
+        //warm up
+        for (int i = 0; i < 100; i++) {
+            transport.write(ReadCharacterAtATime().getBytes());
+            transport.write(ReadChunked());
+            transport.reset();
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < TICKETS; i++) {
+            transport.write(ReadCharacterAtATime().getBytes());
+            transport.reset();
+        }
+        long characterTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < TICKETS; i++) {
+            transport.write(ReadChunked());
+            transport.reset();
+        }
+        long chunkedTime = System.nanoTime() - start;
+
+        byte[] cached = ReadChunked();
+        start = System.nanoTime();
+        for (int i = 0; i < TICKETS; i++) {
+            transport.write(cached);
+            transport.reset();
+        }
+        long cachedTime = System.nanoTime() - start;
+
+        System.out.println(String.format("fgltest600.txt x %d: character %.2f ms, chunked %.2f ms, cached %.2f ms",
+                TICKETS, characterTime / 1e6, chunkedTime / 1e6, cachedTime / 1e6));
+    }
+
+    //the read loop RWFile used before SendAsset
+    private static String ReadCharacterAtATime() throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(ASSET));
+        String msg = "";
+        try {
+            while (bis.available() > 0) {
+                char ch = (char) bis.read();
+                msg = msg + ch;
+            }
+        } finally {
+            bis.close();
+        }
+        return (msg);
+    }
+
+    private static byte[] ReadChunked() throws IOException {
+        InputStream in = new FileInputStream(ASSET);
+        try {
+            return (BocaSystemsSDK.ReadFully(in));
+        } finally {
+            in.close();
+        }
+    }
+}
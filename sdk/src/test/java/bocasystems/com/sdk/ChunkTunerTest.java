@@ -0,0 +1,106 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Chunk sizes from the endpoint packet size, tuning against a modelled bus, and a benchmark of fixed
+ * and tuned transfer sizes through UsbWriter on a USB bus stand-in with per-transfer latency.
+ */
+public class ChunkTunerTest {
+
+    @Test
+    public void sizes_areWholePackets() {
+        ChunkTuner tuner = new ChunkTuner(512, 1000, 16000);
+        assertEquals(15872, tuner.maxChunk());
+        assertEquals(15872, tuner.chunk());
+        assertEquals(0, tuner.chunk() % 512);
+
+        ChunkTuner fixed = new ChunkTuner(64, 16384, 16384);
+        assertFalse(fixed.isTuning());
+        fixed.completed(16384, 1000000);
+        assertEquals(16384, fixed.chunk());
+    }
+
+    @Test
+    public void settlesOnSmallestSizeThatKeepsRate() {
+        //bus time per transfer of 200 us overhead plus 1 us per byte, with the overhead hidden by the
+        //pipeline for transfers of 4096 bytes or more
+        ChunkTuner tuner = new ChunkTuner(64, 1024, 16384);
+        while (tuner.isTuning()) {
+            int size = tuner.chunk();
+            tuner.completed(size, size * 1000L + (size < 4096 ? 200000 : 0));
+        }
+        assertEquals(4096, tuner.chunk());
+        assertEquals(1, tuner.getTuningCount());
+        assertEquals(1e6, tuner.getRate(), 1e3);
+
+        //the short transfer at the end of a write is not measured
+        tuner.completed(100, 1);
+        assertEquals(4096, tuner.chunk());
+    }
+
+    @Test
+    public void retunesAfterRetuneTransfers() {
+        ChunkTuner tuner = new ChunkTuner(64, 1024, 16384);
+        while (tuner.isTuning())
+            tuner.completed(tuner.chunk(), tuner.chunk() * 1000L);
+        assertEquals(1024, tuner.chunk());
+        for (int i = 0; i < ChunkTuner.RETUNE; i++)
+            tuner.completed(tuner.chunk(), tuner.chunk() * 1000L);
+        assertTrue(tuner.isTuning());
+        assertEquals(16384, tuner.chunk());
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_chunkSize() throws Exception {
+        //full speed printer, a slow wakeup for each completion
+        Compare("full speed", 1000000, 0, 2000, 64, 1024 * 1024);
+        //high speed printer, host controller overhead for every transfer
+        Compare("high speed", 30000000, 150, 300, 512, 8 * 1024 * 1024);
+    }
+
+    private void Compare(String name, long rate, long setupMicros, long completionMicros, int packet, int length)
+            throws Exception {
+        byte[] data = Payload(length);
+        StringBuilder line = new StringBuilder(name).append(':');
+        double best = 0;
+        for (int size : new int[]{1024, 4096, 16384}) {
+            double throughput = Throughput(new UsbBusEmulator(rate, setupMicros, completionMicros),
+                    new ChunkTuner(packet, size, size), data);
+            best = Math.max(best, throughput);
+            line.append(String.format(" %d B %.0f KB/s,", size, throughput / 1024));
+        }
+        ChunkTuner tuner = new ChunkTuner(packet, 1024, 16384);
+        double tuned = Throughput(new UsbBusEmulator(rate, setupMicros, completionMicros), tuner, data);
+        line.append(String.format(" tuned %.0f KB/s settled on %d B", tuned / 1024, tuner.chunk()));
+        System.out.println(line);
+        assertEquals(0, tuner.chunk() % packet);
+        assertFalse(tuner.isTuning());
+    }
+
+    //Returns bytes per second
+    private double Throughput(UsbBusEmulator bus, ChunkTuner tuner, byte[] data) throws Exception {
+        UsbWriter writer = new UsbWriter(bus, 4, tuner, null);
+        try {
+            long start = System.nanoTime();
+            assertTrue(writer.write(data, 0, data.length));
+            long elapsed = System.nanoTime() - start;
+            assertArrayEquals(data, bus.getReceived());
+            return (data.length * 1e9 / elapsed);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static byte[] Payload(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return (data);
+    }
+}
@@ -0,0 +1,41 @@
+package bocasystems.com.sdk;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * FGL commands written by FGLBuilder.
+ */
+public class FGLBuilderTest {
+
+    @Test
+    public void commands_matchHandWrittenFGL() {
+        FGLBuilder fgl = new FGLBuilder();
+        fgl.rowColumn(300, 20).font(12).heightWidth(1, 1).rotateLeft().text("BOCA")
+                .rotateRight().upsideDown().noRotation()
+                .rowColumn(18, 898).barcodeWidth(2).barcode("NXL", 10, "*GHOST 12*")
+                .logoPosition(55, 630).printLogo(1)
+                .graphics(new byte[]{'A', 'B'})
+                .noCut().cut();
+
+        assertEquals("<RC300,20><F12><HW1,1><RL>BOCA<RR><RU><NR><RC18,898><X2><NXL10>*GHOST 12*"
+                + "<SP55,630><LD1><G2>AB<q><p>", new String(fgl.sink().toByteArray()));
+    }
+
+    @Test
+    public void reset_reusesBuffer() {
+        FGLBuilder fgl = new FGLBuilder();
+        fgl.rowColumn(-1, 0).cut();
+        byte[] buffer = fgl.sink().array();
+        fgl.reset().rowColumn(100, 100).font(11).text("Hello").cut();
+
+        assertSame(buffer, fgl.sink().array());
+        assertEquals("<RC100,100><F11>Hello<p>", new String(fgl.sink().toByteArray()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void barcode_rejectsCommandBrackets() {
+        new FGLBuilder().barcode("NXL", 10, "<p>");
+    }
+}
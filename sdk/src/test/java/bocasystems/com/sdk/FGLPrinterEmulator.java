@@ -0,0 +1,579 @@
+package bocasystems.com.sdk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Stand-in for a Boca Ethernet printer so the Wi-Fi path can be exercised without hardware.
+ *
+ * Listens on a TCP port (9100 by default, 0 for any free port) and parses the FGL it receives:
+ * row/column moves, text, {@code <G>} graphics, logo download ({@code <ID>} between two ESCs),
+ * logo printing ({@code <SP>}/{@code <LD>}) and the {@code <p>}/{@code <q>} ticket ends.  Each
+ * ticket becomes a {@link Job} holding the reconstructed dot raster, the text and its timing.
+ *
+ * Printing is simulated on one thread that takes a fixed time per ticket and then answers with
+ * ACK (6), or out of tickets (16) once the configured ticket count is used up.  With flow control
+ * enabled it sends X-Off (19) when the unprinted data passes the high mark and X-On (17) when it
+ * falls back to the low mark.
+ *
+ * Run {@link #main} to start one from the command line: {@code FGLPrinterEmulator [port] [ms per ticket]}.
+ */
+public class FGLPrinterEmulator {
+
+    public static final int DEFAULT_PORT = 9100;
+
+    public static final int ACK = 6;
+    public static final int OUT_OF_TICKETS = 16;
+    public static final int XON = 17;
+    public static final int XOFF = 19;
+
+    private static final int ESC = 0x1b;
+    private static final int MAX_COMMAND = 64;
+
+    private final int requestedPort;
+    private ServerSocket server;
+    private Thread acceptThread;
+    private Thread printThread;
+    private volatile boolean running;
+
+    private final List<Connection> connections = new ArrayList<Connection>();
+    private final LinkedBlockingQueue<Job> printQueue = new LinkedBlockingQueue<Job>();
+    private final List<Job> printed = new ArrayList<Job>();
+    private final HashMap<Integer, Raster> logos = new HashMap<Integer, Raster>();
+
+    //settings
+    private volatile long ticketMillis = 0;
+    private volatile boolean ackEnabled = true;
+    private volatile int ticketsRemaining = -1;          //-1 for an endless supply
+    private volatile long xoffBytes = 0;                  //0 disables flow control
+    private volatile long xonBytes = 0;
+    private int receiveBuffer = 0;                        //0 leaves the system default
+
+    //flow control state, guarded by this
+    private long pendingBytes = 0;
+    private long maxPendingBytes = 0;
+    private boolean xoffSent = false;
+
+    public FGLPrinterEmulator() {
+        this(DEFAULT_PORT);
+    }
+
+    public FGLPrinterEmulator(int port) {
+        requestedPort = port;
+    }
+
+    public static void main(String[] args) throws IOException {
+        FGLPrinterEmulator emulator = new FGLPrinterEmulator(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+        if (args.length > 1)
+            emulator.setTicketMillis(Long.parseLong(args[1]));
+        emulator.start();
+        System.out.println("FGL printer emulator listening on port " + emulator.getPort());
+    }
+
+    public synchronized FGLPrinterEmulator start() throws IOException {
+        server = new ServerSocket();
+        if (receiveBuffer > 0)
+            server.setReceiveBufferSize(receiveBuffer);
+        server.bind(new InetSocketAddress(requestedPort));
+        running = true;
+
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Accept();
+            }
+        }, "FGLEmulatorAccept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        printThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Print();
+            }
+        }, "FGLEmulatorPrint");
+        printThread.setDaemon(true);
+        printThread.start();
+        return (this);
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (connections) {
+            for (Connection connection : connections)
+                connection.close();
+            connections.clear();
+        }
+        printThread.interrupt();
+    }
+
+    public int getPort() {
+        return (server.getLocalPort());
+    }
+
+    //TCP receive buffer for connections, set before start().  Embedded printers have small ones, which
+    //keeps the data in flight after an X-Off small.
+    public void setReceiveBufferSize(int bytes) {
+        receiveBuffer = bytes;
+    }
+
+    //Simulated print time per ticket
+    public void setTicketMillis(long millis) {
+        ticketMillis = millis;
+    }
+
+    //Send ACK (6) after every printed ticket
+    public void setAckEnabled(boolean enabled) {
+        ackEnabled = enabled;
+    }
+
+    //Tickets left before out of tickets (16) is sent instead of printing, -1 for no limit
+    public void setTicketsRemaining(int tickets) {
+        ticketsRemaining = tickets;
+    }
+
+    //Send X-Off when unprinted data reaches highBytes and X-On when it drops to lowBytes.  0 disables it.
+    public void setFlowControl(long highBytes, long lowBytes) {
+        xoffBytes = highBytes;
+        xonBytes = lowBytes;
+    }
+
+    //Send a status byte to every connected client
+    public void sendStatus(int status) {
+        synchronized (connections) {
+            for (Connection connection : connections)
+                connection.send(status);
+        }
+    }
+
+    //Most data received but not yet printed at any one time, the printer buffer high water mark
+    public synchronized long getMaxPendingBytes() {
+        return (maxPendingBytes);
+    }
+
+    public Raster getLogo(int id) {
+        synchronized (logos) {
+            return (logos.get(id));
+        }
+    }
+
+    //Tickets printed so far, in print order
+    public List<Job> getJobs() {
+        synchronized (printed) {
+            return (new ArrayList<Job>(printed));
+        }
+    }
+
+    //Wait until at least count tickets have been printed.  Returns false on timeout.
+    public boolean awaitJobs(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (printed) {
+            while (printed.size() < count) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0)
+                    return (false);
+                printed.wait(wait);
+            }
+        }
+        return (true);
+    }
+
+    private void Accept() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                final Connection connection = new Connection(socket);
+                synchronized (connections) {
+                    connections.add(connection);
+                }
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.Read();
+                    }
+                }, "FGLEmulatorConnection");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running)
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    private void Print() {
+        try {
+            while (running) {
+                Job job = printQueue.take();
+                if (ticketMillis > 0)
+                    Thread.sleep(ticketMillis);
+
+                if (ticketsRemaining == 0) {
+                    job.connection.send(OUT_OF_TICKETS);
+                    //the ticket stays in the queue until paper is loaded
+                    while (ticketsRemaining == 0 && running)
+                        Thread.sleep(10);
+                }
+                if (ticketsRemaining > 0)
+                    ticketsRemaining--;
+
+                job.printedNanos = System.nanoTime();
+                Released(job);
+                synchronized (printed) {
+                    printed.add(job);
+                    printed.notifyAll();
+                }
+                if (ackEnabled)
+                    job.connection.send(ACK);
+            }
+        } catch (InterruptedException e) {
+            //stopped
+        }
+    }
+
+    private void Received(Connection connection, int count) {
+        boolean xoff = false;
+        synchronized (this) {
+            pendingBytes += count;
+            maxPendingBytes = Math.max(maxPendingBytes, pendingBytes);
+            if (xoffBytes > 0 && !xoffSent && pendingBytes >= xoffBytes) {
+                xoffSent = true;
+                xoff = true;
+            }
+        }
+        if (xoff)
+            connection.send(XOFF);
+    }
+
+    private void Released(Job job) {
+        boolean xon = false;
+        synchronized (this) {
+            pendingBytes -= job.bytes;
+            if (xoffSent && pendingBytes <= xonBytes) {
+                xoffSent = false;
+                xon = true;
+            }
+        }
+        if (xon)
+            job.connection.send(XON);
+    }
+
+    //One client connection and its FGL parser state
+    private class Connection {
+
+        private final Socket socket;
+        private final OutputStream out;
+
+        private Job job;
+        private Raster target;                  //ticket raster or the logo being downloaded
+        private int row, column;
+        private int logoRow, logoColumn;
+        private final StringBuilder command = new StringBuilder();
+        private final StringBuilder text = new StringBuilder();
+        private boolean inCommand;
+        private int graphicsLeft;
+        private int graphicsColumn;
+        private boolean escape;
+        private int logoId = -1;                //set by <ID#>, download runs between the next two ESCs
+        private boolean downloading;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            out = socket.getOutputStream();
+        }
+
+        void send(int status) {
+            try {
+                synchronized (out) {
+                    out.write(status);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                //client has gone
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //already closed
+            }
+        }
+
+        void Read() {
+            byte[] buffer = new byte[16384];
+            try {
+                InputStream in = socket.getInputStream();
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    Received(this, count);
+                    for (int i = 0; i < count; i++)
+                        Parse(buffer[i] & 0xff);
+                }
+            } catch (SocketException e) {
+                //closed by stop() or by the client
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            synchronized (connections) {
+                connections.remove(this);
+            }
+            close();
+        }
+
+        private void Parse(int b) {
+            if (job == null) {
+                job = new Job(this);
+                target = job.raster;
+            }
+            job.bytes++;
+
+            if (graphicsLeft > 0) {
+                target.setByte(row, graphicsColumn++, b);
+                graphicsLeft--;
+                return;
+            }
+
+            if (escape) {
+                escape = false;
+                if (b == 'c') {                 //ESC c clear memory
+                    synchronized (logos) {
+                        logos.clear();
+                    }
+                    return;
+                }
+            }
+
+            if (b == ESC) {
+                EndText();
+                if (downloading) {
+                    //the download header is not a ticket
+                    downloading = false;
+                    Released(job);
+                    job = null;
+                } else if (logoId >= 0) {
+                    downloading = true;
+                    target = new Raster();
+                    synchronized (logos) {
+                        logos.put(logoId, target);
+                    }
+                    logoId = -1;
+                } else {
+                    escape = true;
+                }
+                return;
+            }
+
+            if (inCommand) {
+                if (b == '>') {
+                    inCommand = false;
+                    Command(command.toString());
+                } else if (command.length() < MAX_COMMAND) {
+                    command.append((char) b);
+                } else {
+                    inCommand = false;          //not a command, treat as text
+                    text.append('<').append(command);
+                }
+                return;
+            }
+
+            if (b == '<') {
+                EndText();
+                inCommand = true;
+                command.setLength(0);
+                return;
+            }
+
+            if (b >= 32)
+                text.append((char) b);
+        }
+
+        private void Command(String fgl) {
+            int n = 0;
+            while (n < fgl.length() && Character.isLetter(fgl.charAt(n)))
+                n++;
+            String name = fgl.substring(0, n);
+            int[] values = Values(fgl.substring(n));
+
+            if (job != null) {
+                Integer seen = job.commands.get(name);
+                job.commands.put(name, seen == null ? 1 : seen + 1);
+            }
+
+            if (name.equals("RC") && values.length == 2) {
+                row = values[0];
+                column = values[1];
+            } else if (name.equals("G") && values.length == 1) {
+                graphicsLeft = values[0];
+                graphicsColumn = column;
+                if (job != null)
+                    job.graphicsBytes += values[0];
+            } else if (name.equals("ID") && values.length == 1) {
+                logoId = values[0];
+            } else if (name.equals("SP") && values.length == 2) {
+                logoRow = values[0];
+                logoColumn = values[1];
+            } else if (name.equals("LD") && values.length == 1) {
+                Raster logo = getLogo(values[0]);
+                if (logo != null)
+                    target.draw(logo, logoRow, logoColumn);
+            } else if ((name.equals("p") || name.equals("q")) && !downloading) {
+                job.cut = name.equals("p");
+                job.completeNanos = System.nanoTime();
+                printQueue.add(job);
+                job = null;
+            }
+        }
+
+        private void EndText() {
+            if (text.length() > 0) {
+                if (job != null)
+                    job.text.add(text.toString());
+                text.setLength(0);
+            }
+        }
+    }
+
+    private static int[] Values(String parameters) {
+        if (parameters.length() == 0)
+            return (new int[0]);
+        String[] parts = parameters.split(",");
+        int[] values = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++)
+                values[i] = Integer.parseInt(parts[i].trim());
+        } catch (NumberFormatException e) {
+            return (new int[0]);
+        }
+        return (values);
+    }
+
+    //One printed ticket
+    public static class Job {
+
+        private final Connection connection;
+        private final Raster raster = new Raster();
+        private final List<String> text = new ArrayList<String>();
+        private final HashMap<String, Integer> commands = new HashMap<String, Integer>();
+        private final long receivedNanos = System.nanoTime();
+        private volatile long completeNanos;
+        private volatile long printedNanos;
+        private long bytes;
+        private long graphicsBytes;
+        private boolean cut;
+
+        private Job(Connection connection) {
+            this.connection = connection;
+        }
+
+        public Raster getRaster() {
+            return (raster);
+        }
+
+        //Text runs in the order they were received
+        public List<String> getText() {
+            return (text);
+        }
+
+        //Number of times an FGL command was seen, by name without parameters (RC, F, G, ...)
+        public int getCommandCount(String name) {
+            Integer count = commands.get(name);
+            return (count == null ? 0 : count);
+        }
+
+        public long getBytes() {
+            return (bytes);
+        }
+
+        public long getGraphicsBytes() {
+            return (graphicsBytes);
+        }
+
+        //true for <p>, false for <q>
+        public boolean isCut() {
+            return (cut);
+        }
+
+        //First byte to ticket end command
+        public long getTransferNanos() {
+            return (completeNanos - receivedNanos);
+        }
+
+        //First byte to ticket printed
+        public long getLatencyNanos() {
+            return (printedNanos - receivedNanos);
+        }
+
+        public long getPrintedNanos() {
+            return (printedNanos);
+        }
+    }
+
+    //Printed dots by row and column.  A <G> byte covers 8 rows at one column, most significant bit on top.
+    public static class Raster {
+
+        private final ArrayList<BitSet> rows = new ArrayList<BitSet>();
+
+        public synchronized boolean get(int row, int column) {
+            return (row >= 0 && row < rows.size() && column >= 0 && rows.get(row).get(column));
+        }
+
+        public synchronized void set(int row, int column) {
+            if (row < 0 || column < 0)
+                return;
+            while (rows.size() <= row)
+                rows.add(new BitSet());
+            rows.get(row).set(column);
+        }
+
+        synchronized void setByte(int row, int column, int bits) {
+            for (int bit = 0; bit < 8; bit++) {
+                if ((bits & (0x80 >> bit)) != 0)
+                    set(row + bit, column);
+            }
+        }
+
+        synchronized void draw(Raster source, int row, int column) {
+            for (int r = 0; r < source.rows.size(); r++) {
+                BitSet bits = source.rows.get(r);
+                for (int c = bits.nextSetBit(0); c >= 0; c = bits.nextSetBit(c + 1))
+                    set(row + r, column + c);
+            }
+        }
+
+        public synchronized int getRows() {
+            return (rows.size());
+        }
+
+        public synchronized int getColumns() {
+            int columns = 0;
+            for (BitSet bits : rows)
+                columns = Math.max(columns, bits.length());
+            return (columns);
+        }
+
+        public synchronized int getDotCount() {
+            int dots = 0;
+            for (BitSet bits : rows)
+                dots += bits.cardinality();
+            return (dots);
+        }
+    }
+}
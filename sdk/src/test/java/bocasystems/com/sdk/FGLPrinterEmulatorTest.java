@@ -0,0 +1,105 @@
+package bocasystems.com.sdk;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tickets sent to the printer emulator over TCP, the way the Wi-Fi session sends them.
+ */
+public class FGLPrinterEmulatorTest {
+
+    @Test
+    public void ticket_isParsedAndAcknowledged() throws Exception {
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        Socket socket = new Socket("localhost", printer.getPort());
+        try {
+            FGLBuilder fgl = new FGLBuilder();
+            fgl.command("P1").command("LM").rowColumn(100, 100).font(11).text("Hello")
+                    .rowColumn(10, 20).graphics(new byte[]{(byte) 0x80, '<', (byte) 0xff}).cut();
+            OutputStream out = socket.getOutputStream();
+            out.write(fgl.sink().toByteArray());
+            out.flush();
+
+            assertEquals(FGLPrinterEmulator.ACK, socket.getInputStream().read());
+            FGLPrinterEmulator.Job job = printer.getJobs().get(0);
+            assertEquals("Hello", job.getText().get(0));
+            assertTrue(job.isCut());
+            assertEquals(2, job.getCommandCount("RC"));
+            assertEquals(3, job.getGraphicsBytes());
+            assertEquals(fgl.sink().length(), job.getBytes());
+
+            //0x80 top dot only, '<' is graphics data and not a command, 0xff a full column of 8
+            FGLPrinterEmulator.Raster raster = job.getRaster();
+            assertTrue(raster.get(10, 20));
+            assertFalse(raster.get(11, 20));
+            assertTrue(raster.get(12, 21) && raster.get(15, 21) && !raster.get(16, 21));
+            assertEquals(1 + 4 + 8, raster.getDotCount());
+        } finally {
+            socket.close();
+            printer.stop();
+        }
+    }
+
+    @Test
+    public void logo_isDownloadedAndPrinted() throws Exception {
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        Socket socket = new Socket("localhost", printer.getPort());
+        try {
+            //the same sequence SendBMP uses for a logo download
+            FGLBuilder fgl = new FGLBuilder();
+            fgl.command("RE0").command("DI").rowColumn(0, 0).command("ID", 5);
+            fgl.sink().write(0x1b);
+            fgl.rowColumn(0, 0).graphics(new byte[]{(byte) 0xc0}).cut();
+            fgl.sink().write(0x1b);
+            fgl.logoPosition(50, 60).printLogo(5).cut();
+            OutputStream out = socket.getOutputStream();
+            out.write(fgl.sink().toByteArray());
+            out.flush();
+
+            assertEquals(FGLPrinterEmulator.ACK, socket.getInputStream().read());
+            assertEquals(2, printer.getLogo(5).getDotCount());
+            FGLPrinterEmulator.Raster raster = printer.getJobs().get(0).getRaster();
+            assertTrue(raster.get(50, 60) && raster.get(51, 60));
+            assertEquals(2, raster.getDotCount());
+            assertEquals(1, printer.getJobs().size());
+        } finally {
+            socket.close();
+            printer.stop();
+        }
+    }
+
+    @Test
+    public void flowControlAndOutOfTickets() throws Exception {
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        printer.setTicketMillis(20);
+        printer.setFlowControl(20, 0);
+        printer.setTicketsRemaining(1);
+        Socket socket = new Socket("localhost", printer.getPort());
+        try {
+            FGLBuilder fgl = new FGLBuilder();
+            fgl.rowColumn(10, 10).text("TICKET ONE").cut().rowColumn(10, 10).text("TICKET TWO").cut();
+            OutputStream out = socket.getOutputStream();
+            out.write(fgl.sink().toByteArray());
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            assertEquals(FGLPrinterEmulator.XOFF, in.read());
+            assertEquals(FGLPrinterEmulator.ACK, in.read());
+            assertEquals(FGLPrinterEmulator.OUT_OF_TICKETS, in.read());
+
+            printer.setTicketsRemaining(10);
+            assertEquals(FGLPrinterEmulator.XON, in.read());
+            assertEquals(FGLPrinterEmulator.ACK, in.read());
+            assertTrue(printer.awaitJobs(2, 1000));
+            assertTrue(printer.getJobs().get(1).getLatencyNanos() >= 40000000L);
+        } finally {
+            socket.close();
+            printer.stop();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compiling and filling FGL templates, plus a fill rate measurement.
+ */
+public class FGLTemplateTest {
+
+    private static final String TICKET =
+            "<RC300,95><F6><RL>{{text:event}}<RC345,200>SEAT {{number:seat}} ROW {{number:row}}"
+            + "<RC18,898><X2><NXL10>*{{barcode:serial}}*<RC20,1025>{{event}}<p>";
+
+    @Test
+    public void fill_writesSegmentsAndSlots() {
+        FGLTemplate template = FGLTemplate.compile(TICKET);
+        assertEquals(4, template.getSlotCount());
+        assertEquals(FGLTemplate.NUMBER, template.getSlotType(template.slot("seat")));
+
+        ByteSink sink = new ByteSink();
+        template.newTicket()
+                .setText(template.slot("event"), "CONCERT")
+                .setNumber(template.slot("seat"), 12)
+                .setNumber(template.slot("row"), -3)
+                .setBarcode(template.slot("serial"), "A1234")
+                .writeTo(sink);
+
+        assertEquals("<RC300,95><F6><RL>CONCERT<RC345,200>SEAT 12 ROW -3"
+                + "<RC18,898><X2><NXL10>*A1234*<RC20,1025>CONCERT<p>", new String(sink.toByteArray()));
+    }
+
+    @Test
+    public void templateWithoutSlots_isUnchanged() throws IOException {
+        InputStream in = new FileInputStream(new File("../app/src/main/assets/fgltest300.txt"));
+        byte[] original;
+        try {
+            original = BocaSystemsSDK.ReadFully(in);
+        } finally {
+            in.close();
+        }
+        ByteSink sink = new ByteSink();
+        FGLTemplate.compile(original).newTicket().writeTo(sink);
+        assertArrayEquals(original, sink.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void barcode_rejectsCommandBrackets() {
+        FGLTemplate template = FGLTemplate.compile(TICKET);
+        template.newTicket().setBarcode(template.slot("serial"), "<p>");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void text_rejectsCommandBrackets() {
+        FGLTemplate template = FGLTemplate.compile(TICKET);
+        template.newTicket().setText(template.slot("event"), "SHOW<p><p><p>");
+    }
+
+    @Test
+    public void compile_encodesLikeByteSink() {
+        ByteSink sink = new ByteSink();
+        FGLTemplate.compile("CAF\u00c9 \u20ac").newTicket().writeTo(sink);
+        ByteSink expected = new ByteSink().writeText("CAF\u00c9 \u20ac");
+        assertArrayEquals(expected.toByteArray(), sink.toByteArray());
+        assertEquals('?', sink.toByteArray()[5]);
+    }
+
+    @Test
+    public void unsetSlot_failsBeforeWriting() {
+        FGLTemplate template = FGLTemplate.compile(TICKET);
+        ByteSink sink = new ByteSink();
+        FGLTemplate.Ticket ticket = template.newTicket()
+                .setText(template.slot("event"), "CONCERT")
+                .setNumber(template.slot("seat"), 12);
+        try {
+            ticket.writeTo(sink);                               //row and serial never set
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(0, sink.length());
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_fillRate() {
+        FGLTemplate template = FGLTemplate.compile(TICKET);
+        FGLTemplate.Ticket ticket = template.newTicket();
+        int event = template.slot("event");
+        int seat = template.slot("seat");
+        int row = template.slot("row");
+        int serial = template.slot("serial");
+        ByteSink sink = new ByteSink();
+        int tickets = 1000000;
+
+        ticket.setText(event, "CONCERT").setBarcode(serial, "A1234");
+        long start = System.nanoTime();
+        for (int i = 0; i < tickets; i++) {
+            sink.reset();
+            ticket.setNumber(seat, i % 40).setNumber(row, i / 40).writeTo(sink);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        //five slot positions per ticket
+        System.out.println(String.format("%d tickets in %.1f ms, %.1f million fields/s",
+                tickets, elapsed / 1e6, (tickets * 5.0) / (elapsed / 1e3)));
+    }
+}
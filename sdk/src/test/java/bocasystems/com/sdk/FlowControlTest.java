@@ -0,0 +1,124 @@
+package bocasystems.com.sdk;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Long graphic jobs sent through the Wi-Fi writer to an in-memory printer that sends X-Off when its
+ * buffer fills and X-On once it has printed it down, with and without the writer being gated by them.
+ */
+public class FlowControlTest {
+
+    private static final int TICKETS = 40;
+    private static final int HIGH = 32 * 1024;
+    private static final int LOW = 8 * 1024;
+    private static final int BLOCK = 4096;              //WifiWriter's flow block, the most sent after an X-Off
+
+    @Test
+    public void xoff_limitsPrinterBuffer() throws Exception {
+        long ungated = Send(false);
+        long gated = Send(true);
+        assertTrue("gated peak " + gated, gated < HIGH + BLOCK);
+        assertTrue("gated peak " + gated + ", ungated " + ungated, gated < ungated);
+    }
+
+    @Test
+    public void await_timesOutWithoutXOn() {
+        FlowControl flow = new FlowControl();
+        flow.setTimeout(50);
+        flow.scan(new byte[]{'A', FlowControl.XOFF}, 0, 2);
+        assertTrue(flow.isPaused());
+        assertFalse(flow.await());
+        assertEquals(1, flow.getTimeoutCount());
+        assertFalse(flow.isPaused());
+
+        flow.scan(new char[]{FlowControl.XOFF, FlowControl.XON}, 0, 2);
+        assertTrue(flow.await());
+        flow.setEnabled(false);
+        flow.pause();
+        assertFalse(flow.isPaused());
+    }
+
+    //Returns the most unprinted data the printer had to hold
+    private long Send(boolean gated) throws Exception {
+        FlowControl flow = new FlowControl();
+        flow.setEnabled(gated);
+        flow.setTimeout(0);                             //a lost X-On would hang the test rather than pass it
+        Printer printer = new Printer(flow);
+        Thread printing = new Thread(printer);
+        printing.start();
+
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        try {
+            WifiWriter writer = new WifiWriter(printer, 64, flow);
+            FGLBuilder fgl = new FGLBuilder();
+            byte[] band = new byte[8000];
+            for (int t = 0; t < TICKETS; t++) {
+                fgl.reset().rowColumn(10, 10).text("T" + t).rowColumn(20, 10).graphics(band).cut();
+                byte[] ticket = fgl.sink().toByteArray();
+                writer.write(ticket, 0, ticket.length, false);
+                sent.write(ticket);
+            }
+            assertTrue(writer.flush(30000));
+            writer.close(1000);
+            assertArrayEquals(sent.toByteArray(), printer.received.toByteArray());
+            if (gated)
+                assertTrue(flow.getPauseCount() > 0);
+            return (printer.peak);
+        } finally {
+            printing.interrupt();
+            printing.join();
+        }
+    }
+
+    //Holds what it receives.  Sends X-Off once HIGH bytes are waiting; its run() then prints them down
+    //to LOW and sends X-On.  It only prints while the writer is paused, so without gating nothing is
+    //printed and the peak does not depend on thread timing.
+    private static class Printer extends OutputStream implements Runnable {
+        private final FlowControl flow;
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        long pending;
+        long peak;
+        private boolean xoff;
+
+        Printer(FlowControl flow) {
+            this.flow = flow;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] data, int offset, int length) {
+            received.write(data, offset, length);
+            pending += length;
+            peak = Math.max(peak, pending);
+            if (!xoff && pending >= HIGH) {
+                xoff = true;
+                flow.scan(new byte[]{FlowControl.XOFF}, 0, 1);
+                notifyAll();
+            }
+        }
+
+        @Override
+        public synchronized void run() {
+            try {
+                while (true) {
+                    while (!xoff || !flow.isPaused())
+                        wait();
+                    pending = LOW;
+                    xoff = false;
+                    flow.scan(new byte[]{FlowControl.XON}, 0, 1);
+                }
+            } catch (InterruptedException e) {
+                //test done
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Spool journal recovery after a simulated crash, and journal throughput with several printer threads.
+ */
+public class PrintSpoolerTest {
+
+    @Test
+    public void reopen_resumesQueuedAndFlagsUncertain() throws Exception {
+        File directory = NewDirectory();
+        PrintSpooler spooler = new PrintSpooler(directory);
+        PrintSpooler.SpoolJob sending = spooler.enqueue("Gate 1", "<RC10,10>ONE<p>".getBytes());
+        PrintSpooler.SpoolJob printed = spooler.enqueue("Gate 1", "<RC10,10>TWO<p>".getBytes());
+        PrintSpooler.SpoolJob queued = spooler.enqueue("Gate 2", "<RC10,10>THREE<p>".getBytes());
+        spooler.markSending(sending);
+        spooler.markSending(printed);
+        spooler.markAcknowledged(printed);
+        spooler.sync();
+
+        //the app dies in the middle of appending a record
+        FileOutputStream journal = new FileOutputStream(new File(directory, "journal.log"), true);
+        journal.write("S 3".getBytes());
+        journal.close();
+
+        PrintSpooler reopened = new PrintSpooler(directory);
+        List<PrintSpooler.SpoolJob> resume = reopened.getQueued();
+        List<PrintSpooler.SpoolJob> uncertain = reopened.getUncertain();
+        assertEquals(1, resume.size());
+        assertEquals(queued.getId(), resume.get(0).getId());
+        assertEquals("Gate 2", resume.get(0).getPrinter());
+        assertEquals("<RC10,10>THREE<p>", new String(resume.get(0).readPayload()));
+        assertEquals(1, uncertain.size());
+        assertEquals(sending.getId(), uncertain.get(0).getId());
+        assertFalse(printed.getPayloadFile().exists());
+
+        //new ids carry on after the old ones
+        PrintSpooler.SpoolJob next = reopened.enqueue("Gate 1", new byte[1]);
+        assertTrue(next.getId() > queued.getId());
+        reopened.requeue(uncertain.get(0));
+        assertEquals(3, reopened.getQueued().size());
+        reopened.close();
+        spooler.close();
+    }
+
+    @Test
+    public void failed_keptUntilRequeuedOrDiscarded() throws Exception {
+        File directory = NewDirectory();
+        PrintSpooler spooler = new PrintSpooler(directory);
+        PrintSpooler.SpoolJob retry = spooler.enqueue("Gate 1", "<RC10,10>ONE<p>".getBytes());
+        PrintSpooler.SpoolJob dropped = spooler.enqueue("Gate 1", "<RC10,10>TWO<p>".getBytes());
+        spooler.markSending(retry);
+        spooler.markFailed(retry);
+        spooler.markSending(dropped);
+        spooler.markFailed(dropped);
+        spooler.close();
+
+        //reopening compacts the journal, failed jobs and their payloads must survive it
+        PrintSpooler reopened = new PrintSpooler(directory);
+        List<PrintSpooler.SpoolJob> failed = reopened.getFailed();
+        assertEquals(2, failed.size());
+        assertEquals(0, reopened.getQueued().size());
+        reopened.requeue(failed.get(0));
+        assertEquals("<RC10,10>ONE<p>", new String(reopened.getQueued().get(0).readPayload()));
+        reopened.discard(failed.get(1));
+        assertEquals(0, reopened.getFailed().size());
+        reopened.close();
+
+        PrintSpooler again = new PrintSpooler(directory);
+        assertEquals(1, again.getQueued().size());
+        assertEquals(retry.getId(), again.getQueued().get(0).getId());
+        assertEquals(0, again.getFailed().size());
+        assertFalse(dropped.getPayloadFile().exists());
+        again.close();
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_journalThroughput() throws Exception {
+        final PrintSpooler spooler = new PrintSpooler(NewDirectory());
+        final byte[] payload = new byte[2048];
+        final int printers = 4;
+        final int tickets = 1000;
+        Thread[] threads = new Thread[printers];
+        final IOException[] failure = new IOException[1];
+
+        long start = System.nanoTime();
+        for (int p = 0; p < printers; p++) {
+            final String name = "Printer " + p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int t = 0; t < tickets; t++) {
+                            PrintSpooler.SpoolJob job = spooler.enqueue(name, payload);
+                            spooler.markSending(job);
+                            spooler.markAcknowledged(job);
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        spooler.sync();
+        long elapsed = System.nanoTime() - start;
+
+        assertNull(failure[0]);
+        assertEquals(0, spooler.getQueued().size());
+        assertEquals(0, spooler.getUncertain().size());
+        System.out.println(String.format("%d jobs in %.0f ms, %.0f jobs/s (%.0f per hour), %.1f records per journal fsync",
+                printers * tickets, elapsed / 1e6, printers * tickets / (elapsed / 1e9),
+                printers * tickets / (elapsed / 1e9) * 3600, (double) spooler.getRecordCount() / spooler.getCommitCount()));
+        spooler.close();
+    }
+
+    private static File NewDirectory() throws IOException {
+        File directory = File.createTempFile("spool", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+        directory.deleteOnExit();
+        return (directory);
+    }
+}
@@ -0,0 +1,96 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * CPU used by a session read thread over a long mostly idle connection: the printer sends a status
+ * byte every 20 ms for a while, then nothing.  Once with the delay loop the read threads used to run
+ * after every read and once with a plain blocking read.  CPU time is what costs battery on a tablet
+ * left connected all day.  The delay loop is copied here as the read threads ran it before 7.0,
+ * since the SDK no longer has it.
+ */
+public class ReadLoopBenchmark {
+
+    private static final int CHATTY_MILLIS = 3000;
+    private static final int IDLE_MILLIS = 3000;
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_readThreadCpu() throws Exception {
+        long spin = Measure(true);
+        long blocking = Measure(false);
+        System.out.println(String.format("read thread CPU over %d s: delay loop %.1f ms, blocking read %.1f ms",
+                (CHATTY_MILLIS + IDLE_MILLIS) / 1000, spin / 1e6, blocking / 1e6));
+    }
+
+    //Returns read thread CPU nanos
+    private long Measure(final boolean spin) throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        EnableCpuTime(threads);
+
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        final Socket socket = new Socket("localhost", printer.getPort());
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong sink = new AtomicLong();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[1024];
+                int x, y = 0;
+                try {
+                    InputStream in = socket.getInputStream();
+                    while (true) {
+                        int bytes = in.read(buffer);
+                        if (bytes < 0)
+                            break;
+                        received.addAndGet(bytes);
+                        if (spin) {
+                            for (x = 0; x < 100000; x++) {
+                                y++;
+                            }
+                            sink.addAndGet(y);              //keeps the JIT from removing the loop
+                            y = 0;
+                        }
+                    }
+                } catch (IOException e) {
+                    //closed
+                }
+            }
+        });
+        reader.start();
+
+        try {
+            Thread.sleep(100);                              //let the emulator accept the connection
+            long end = System.currentTimeMillis() + CHATTY_MILLIS;
+            int sent = 0;
+            while (System.currentTimeMillis() < end) {
+                printer.sendStatus(FGLPrinterEmulator.XON);
+                sent++;
+                Thread.sleep(20);
+            }
+            Thread.sleep(IDLE_MILLIS);
+            long cpu = threads.getThreadCpuTime(reader.getId());
+            assertTrue(received.get() >= sent);
+            return (cpu);
+        } finally {
+            socket.close();
+            printer.stop();
+            reader.join(1000);
+        }
+    }
+
+    private static void EnableCpuTime(ThreadMXBean threads) {
+        if (!threads.isThreadCpuTimeEnabled())
+            threads.setThreadCpuTimeEnabled(true);
+    }
+}
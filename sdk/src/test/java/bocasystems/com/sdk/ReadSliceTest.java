@@ -0,0 +1,108 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static org.junit.Assert.*;
+
+/**
+ * Read slices handed from a read thread that reuses one buffer to a decoding thread under heavy status
+ * traffic, checking every read arrives intact, and the garbage per read with slices and with a copy.
+ */
+public class ReadSliceTest {
+
+    private static final int READS = 100000;
+
+    @Test
+    public void slice_keepsBytesWhenBufferReused() {
+        byte[] buffer = {6, 17, 'O', 'K'};
+        ReadSlice slice = ReadSlice.obtain(buffer, 0, buffer.length);
+        Arrays.fill(buffer, (byte) 0);
+        assertEquals(4, slice.length());
+        assertEquals('K', slice.data()[3]);
+        slice.recycle();
+
+        char[] chars = {'A', 0xE9, 19};
+        slice = ReadSlice.obtain(chars, 1, 2);
+        assertEquals(2, slice.length());
+        assertEquals((byte) 0xE9, slice.data()[0]);
+        assertEquals(19, slice.data()[1]);
+        slice.recycle();
+    }
+
+    @Test
+    public void heavyTraffic_everyReadIntact() throws Exception {
+        //the decoding thread keeps up to within a few reads, as the main thread does with a printer
+        final ArrayBlockingQueue<ReadSlice> messages = new ArrayBlockingQueue<ReadSlice>(8);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[64];
+                for (int i = 0; i < READS; i++) {
+                    int count = Fill(buffer, i);
+                    try {
+                        messages.put(ReadSlice.obtain(buffer, 0, count));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        long misses = ReadSlice.getMissCount();
+        reader.start();
+        byte[] expected = new byte[64];
+        for (int i = 0; i < READS; i++) {
+            ReadSlice slice = messages.take();
+            int count = Fill(expected, i);
+            assertEquals(count, slice.length());
+            for (int j = 0; j < count; j++)
+                assertEquals(expected[j], slice.data()[j]);
+            slice.recycle();
+        }
+        reader.join();
+        misses = ReadSlice.getMissCount() - misses;
+        assertTrue(READS + " reads, " + misses + " slices allocated", misses <= 16);
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_garbagePerRead() {
+        byte[] buffer = new byte[1024];
+        int count = Fill(buffer, 59);
+        for (int i = 0; i < 1000; i++)
+            ReadSlice.obtain(buffer, 0, count).recycle();
+
+        long before = Allocated();
+        for (int i = 0; i < READS; i++)
+            ReadSlice.obtain(buffer, 0, count).recycle();
+        long sliced = Allocated() - before;
+
+        long sink = 0;
+        before = Allocated();
+        for (int i = 0; i < READS; i++)
+            sink += Arrays.copyOf(buffer, count).length;
+        long copied = Allocated() - before;
+
+        System.out.println(String.format("garbage per %d byte read: pooled slice %d bytes, copy %d bytes",
+                count, sliced / READS, copied / READS));
+        assertEquals((long) count * READS, sink);
+        assertTrue(sliced < copied);
+    }
+
+    //Distinct contents and length for each read, status bytes and text
+    private static int Fill(byte[] buffer, int read) {
+        int count = 1 + read % 60;
+        for (int j = 0; j < count; j++)
+            buffer[j] = (byte) (j % 8 == 0 ? StatusEvent.TICKET_ACK : 'A' + (read + j) % 26);
+        return (count);
+    }
+
+    private static long Allocated() {
+        return (((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId()));
+    }
+}
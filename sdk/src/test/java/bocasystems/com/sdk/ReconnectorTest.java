@@ -0,0 +1,113 @@
+package bocasystems.com.sdk;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reconnecting to a printer emulator that goes away and comes back on the same port, with the backoff
+ * alone and with a wake() when the link returns, as the session does from the system broadcasts.
+ */
+public class ReconnectorTest {
+
+    @Test
+    public void delay_isJitteredAndCapped() {
+        Reconnector reconnector = new Reconnector(null);
+        reconnector.setBackoff(100, 1000, 0);
+        for (int i = 0; i < 100; i++) {
+            long first = reconnector.Delay(0);
+            assertTrue(first >= 50 && first <= 100);
+            long third = reconnector.Delay(2);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = reconnector.Delay(40);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void attemptsRunOut_finishesNotReconnected() throws Exception {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicBoolean result = new AtomicBoolean(true);
+        Reconnector reconnector = new Reconnector(new Reconnector.Target() {
+            @Override
+            public boolean Reopen() {
+                return (false);
+            }
+
+            @Override
+            public void Finished(boolean reconnected) {
+                result.set(reconnected);
+                finished.countDown();
+            }
+        });
+        reconnector.setBackoff(5, 20, 3);
+        assertTrue(reconnector.start());
+        assertTrue(finished.await(2, TimeUnit.SECONDS));
+        assertFalse(result.get());
+        assertEquals(3, reconnector.getAttemptCount());
+        assertFalse(reconnector.isRunning());
+    }
+
+    @Test
+    public void wake_reconnectsAsSoonAsPrinterIsBack() throws Exception {
+        long backoff = Outage(false);
+        long woken = Outage(true);
+        assertTrue("woken " + woken + " ms, backoff only " + backoff + " ms", woken < 500);
+    }
+
+    //Returns ms from the printer listening again to the connection being reopened
+    private long Outage(boolean wake) throws Exception {
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        final int port = printer.getPort();
+        final Socket[] socket = {new Socket("localhost", port)};
+        final CountDownLatch finished = new CountDownLatch(1);
+        final long[] reconnectedAt = new long[1];
+
+        Reconnector reconnector = new Reconnector(new Reconnector.Target() {
+            @Override
+            public boolean Reopen() {
+                Socket retry = new Socket();
+                try {
+                    retry.connect(new InetSocketAddress("localhost", port), 1000);
+                    socket[0] = retry;
+                    return (true);
+                } catch (IOException e) {
+                    return (false);
+                }
+            }
+
+            @Override
+            public void Finished(boolean reconnected) {
+                reconnectedAt[0] = System.nanoTime();
+                finished.countDown();
+            }
+        });
+        reconnector.setBackoff(50, 2000, 0);
+
+        printer.stop();
+        socket[0].close();
+        reconnector.start();
+        Thread.sleep(1500);                             //a few failed attempts, backoff has grown
+
+        printer = new FGLPrinterEmulator(port).start();
+        long back = System.nanoTime();
+        if (wake)
+            reconnector.wake();
+        try {
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+            assertTrue(reconnector.getAttemptCount() > 1);
+            assertEquals(1, reconnector.getReconnectCount());
+            return ((reconnectedAt[0] - back) / 1000000L);
+        } finally {
+            socket[0].close();
+            printer.stop();
+        }
+    }
+}
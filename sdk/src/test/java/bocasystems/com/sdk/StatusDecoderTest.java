@@ -0,0 +1,134 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Status bytes and text lines decoded from printer replies split across reads, and the memory the
+ * decoder allocates for a long run of status compared with building the report a character at a time.
+ */
+public class StatusDecoderTest {
+
+    private final List<StatusEvent> events = new ArrayList<StatusEvent>();
+    private final StatusDecoder decoder = new StatusDecoder(16, new StatusDecoder.Sink() {
+        @Override
+        public void Status(StatusEvent event) {
+            events.add(event);
+        }
+    });
+
+    @Test
+    public void statusBytes_fromTable() {
+        Decode(new byte[]{6, 16, 17, 18, 19, 21, 24, 25, 26, 27, 28, 29, 0, 7, (byte) 0x90});
+        int[] types = {6, 16, 17, 18, 19, 21, 24, 25, 26, 27, 28, 29};
+        assertEquals(types.length, events.size());
+        for (int i = 0; i < types.length; i++)
+            assertEquals(types[i], events.get(i).getType());
+        assertEquals("Cutter Jam", events.get(11).getText());
+        assertEquals("Ticket NAK", events.get(9).getText());
+        assertTrue(events.get(6).isError());
+        assertFalse(events.get(0).isError());
+        assertSame(StatusDecoder.lookup(6), events.get(0));
+    }
+
+    @Test
+    public void text_splitAcrossReads_reportedOnce() {
+        Decode("FGL46".getBytes(StandardCharsets.US_ASCII));
+        Decode("/A\r".getBytes(StandardCharsets.US_ASCII));
+        Decode(new byte[]{'O', 'K', 6});
+        assertEquals(3, events.size());
+        assertEquals(StatusEvent.TEXT, events.get(0).getType());
+        assertEquals("FGL46/A", events.get(0).getText());
+        assertEquals("OK", events.get(1).getText());
+        assertEquals(StatusEvent.TICKET_ACK, events.get(2).getType());
+    }
+
+    @Test
+    public void unendedText_reportedOnFlush() {
+        Decode("ABC".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(events.isEmpty());
+        assertTrue(decoder.hasPendingText());
+        decoder.flush();
+        assertEquals("ABC", events.get(0).getText());
+        assertFalse(decoder.hasPendingText());
+    }
+
+    @Test
+    public void longLine_reportedInRingSizedPieces_acrossWrap() {
+        Decode("0123456789\r".getBytes(StandardCharsets.US_ASCII));   //moves the ring head along
+        Decode("abcdefghijklmnopqrstuvwxyz\n".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(3, events.size());
+        assertEquals("0123456789", events.get(0).getText());
+        assertEquals("abcdefghijklmnop", events.get(1).getText());
+        assertEquals("qrstuvwxyz", events.get(2).getText());
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_allocation() {
+        byte[] reply = new byte[64];
+        int n = 0;
+        for (byte b : "FGL46/A SN 123456\r".getBytes(StandardCharsets.US_ASCII))
+            reply[n++] = b;
+        while (n < reply.length)
+            reply[n++] = (byte) (n % 2 == 0 ? StatusEvent.TICKET_ACK : StatusEvent.XON);
+        final int READS = 20000;
+
+        final int[] seen = new int[1];
+        StatusDecoder quiet = new StatusDecoder(256, new StatusDecoder.Sink() {
+            @Override
+            public void Status(StatusEvent event) {
+                seen[0]++;
+            }
+        });
+        long before = Allocated();
+        for (int i = 0; i < READS; i++)
+            quiet.decode(reply, 0, reply.length);
+        long decoder = Allocated() - before;
+
+        before = Allocated();
+        int statuses = 0;
+        for (int i = 0; i < READS; i++)
+            statuses += PerCharacter(reply);
+        long perCharacter = Allocated() - before;
+
+        System.out.println(String.format("status allocation per read: decoder %d bytes, per character %d bytes",
+                decoder / READS, perCharacter / READS));
+        assertEquals(statuses, seen[0]);
+    }
+
+    //The USB read loop's old decoding, a String built with += per character
+    private static int PerCharacter(byte[] buffer) {
+        String statusReport = "";
+        int statuses = 0;
+        for (byte b : buffer) {
+            if (b >= 32) {
+                statusReport += (char) b;
+                continue;
+            }
+            if (statusReport.length() > 0) {
+                statuses++;
+                statusReport = "";
+            }
+            if (StatusDecoder.lookup(b) != null)
+                statuses++;
+        }
+        return (statuses);
+    }
+
+    private void Decode(byte[] data) {
+        decoder.decode(data, 0, data.length);
+    }
+
+    private static long Allocated() {
+        return (((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId()));
+    }
+}
@@ -0,0 +1,113 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Main thread CPU per status byte during a large job with frequent ACKs, with status handled the way
+ * the session used to (decoded and reported on the main thread) and the way it does now (decoded on the
+ * status thread with callbacks posted to the main thread, the default, or called on the status thread
+ * after SetStatusExecutor(null)).  A single thread executor stands in for the main Looper, which local
+ * tests cannot run, so the session's PublishStatus and AppendStatus are copied here around the real
+ * StatusDecoder and ReadSlice.
+ */
+public class StatusThreadBenchmark {
+
+    private static final int READS = 50000;
+    private static final int STATUS_RETURNED_MAX = 4096;
+    private static final byte[] READ = {6, 17, 'R', 'E', 'A', 'D', 'Y', '\r', 6, 19, 17, 6, 6, 17, 19, 6};
+    private static final int EVENTS_PER_READ = 11;    //ten status bytes and one line
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_mainThreadTimePerStatusByte() throws Exception {
+        double onMain = Measure(Mode.MAIN);
+        double executor = Measure(Mode.STATUS_EXECUTOR);
+        double statusThread = Measure(Mode.STATUS_THREAD);
+        System.out.println(String.format("main thread CPU per status byte: on main %.0f ns, status thread with"
+                + " callbacks posted to main %.0f ns, status thread %.0f ns", onMain, executor, statusThread));
+        assertTrue(statusThread < onMain);
+    }
+
+    private enum Mode {MAIN, STATUS_THREAD, STATUS_EXECUTOR}
+
+    //Returns main thread CPU nanos per status byte
+    private double Measure(final Mode mode) throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadCpuTimeEnabled())
+            threads.setThreadCpuTimeEnabled(true);
+        final ExecutorService main = Executors.newSingleThreadExecutor();
+        final ExecutorService status = Executors.newSingleThreadExecutor();
+        final CountDownLatch done = new CountDownLatch(READS * EVENTS_PER_READ);
+        final AtomicLong callbacks = new AtomicLong();
+        final String[] statusReturned = {""};
+
+        //the session's PublishStatus and DeliverStatus
+        final StatusDecoder decoder = new StatusDecoder(256, new StatusDecoder.Sink() {
+            @Override
+            public void Status(final StatusEvent event) {
+                String appended = statusReturned[0] + event.getText();
+                if (appended.length() > STATUS_RETURNED_MAX)
+                    appended = appended.substring(appended.length() - STATUS_RETURNED_MAX);
+                statusReturned[0] = appended;
+                Runnable deliver = new Runnable() {
+                    @Override
+                    public void run() {
+                        callbacks.incrementAndGet();
+                        done.countDown();
+                    }
+                };
+                if (mode == Mode.STATUS_EXECUTOR)
+                    main.execute(deliver);
+                else
+                    deliver.run();
+            }
+        });
+
+        long mainThread = main.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return (Thread.currentThread().getId());
+            }
+        }).get();
+        long before = threads.getThreadCpuTime(mainThread);
+
+        //the read thread, handing each read to the decoding thread
+        ExecutorService decoding = mode == Mode.MAIN ? main : status;
+        for (int i = 0; i < READS; i++) {
+            final ReadSlice slice = ReadSlice.obtain(READ, 0, READ.length);
+            decoding.execute(new Runnable() {
+                @Override
+                public void run() {
+                    decoder.decode(slice.data(), 0, slice.length());
+                    slice.recycle();
+                }
+            });
+        }
+        try {
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            long cpu = main.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return (threads.getCurrentThreadCpuTime());
+                }
+            }).get() - before;
+            assertEquals(READS * EVENTS_PER_READ, callbacks.get());
+            return ((double) cpu / ((long) READS * READ.length));
+        } finally {
+            main.shutdown();
+            status.shutdown();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ticket ACK/NAK matching, and tickets pipelined to a printer emulator that ACKs each printed ticket
+ * with one ticket in flight (stop and wait) and with a window of four.
+ */
+public class TicketTrackerTest {
+
+    private static final int TICKETS = 200;
+
+    @Test
+    public void answers_matchTicketsInOrder() throws Exception {
+        TicketTracker tracker = new TicketTracker();
+        TicketTracker.Ticket first = tracker.begin();
+        TicketTracker.Ticket second = tracker.begin();
+        TicketTracker.Ticket third = tracker.begin();
+        assertEquals(3, tracker.getInFlight());
+
+        tracker.scan(new byte[]{'O', 'K', TicketTracker.ACK, 17, TicketTracker.NAK}, 0, 5);
+        assertTrue(first.get());
+        try {
+            second.get();
+            fail("NAK should fail the ticket");
+        } catch (ExecutionException e) {
+            assertEquals("Ticket NAK", e.getCause().getMessage());
+        }
+        assertFalse(third.isDone());
+
+        tracker.status(TicketTracker.CUTTER_JAM);
+        assertTrue(third.isDone());
+        assertEquals(1, tracker.getAcknowledgedCount());
+        assertEquals(2, tracker.getFailedCount());
+
+        //nothing outstanding, stray answers are ignored
+        tracker.status(TicketTracker.ACK);
+        assertEquals(1, tracker.getAcknowledgedCount());
+    }
+
+    @Test
+    public void listener_toldOfEachAnswer() throws Exception {
+        TicketTracker tracker = new TicketTracker();
+        final List<String> answers = new ArrayList<String>();
+        TicketTracker.Listener listener = new TicketTracker.Listener() {
+            @Override
+            public void TicketDone(TicketTracker.Ticket ticket, IOException error) {
+                answers.add(error == null ? "ACK" : error.getMessage());
+            }
+        };
+        tracker.begin(listener);
+        tracker.begin(listener);
+        tracker.begin(listener);
+        tracker.scan(new byte[]{TicketTracker.ACK, TicketTracker.TICKET_JAM}, 0, 2);
+        tracker.cancelAll("Session closed");
+        assertEquals("[ACK, Ticket Jam, Session closed]", answers.toString());
+    }
+
+    @Test
+    public void fullWindow_failsUnansweredTicketAfterTimeout() throws Exception {
+        TicketTracker tracker = new TicketTracker();
+        tracker.setWindow(1);
+        tracker.setAckTimeout(50);
+        TicketTracker.Ticket first = tracker.begin();
+        TicketTracker.Ticket second = tracker.begin();          //waits for the first to time out
+        try {
+            first.get(1, TimeUnit.SECONDS);
+            fail("ticket without an ACK should fail");
+        } catch (ExecutionException e) {
+            assertEquals("No ACK", e.getCause().getMessage());
+        }
+        assertFalse(second.isDone());
+
+        tracker.cancelAll("Session closed");
+        assertTrue(second.isDone());
+        assertEquals(0, tracker.getInFlight());
+    }
+
+    @Test
+    public void fullWindow_refusesTicketAfterWindowWait() throws Exception {
+        TicketTracker tracker = new TicketTracker();
+        tracker.setWindow(1);
+        tracker.setWindowWait(50);
+        TicketTracker.Ticket first = tracker.begin();
+        TicketTracker.Ticket second = tracker.begin();          //no ACK within the window wait
+        assertTrue(second.isDone());
+        try {
+            second.get();
+            fail("ticket without room in the window should fail");
+        } catch (ExecutionException e) {
+            assertEquals("Ticket window full", e.getCause().getMessage());
+        }
+        assertEquals(1, tracker.getInFlight());
+
+        tracker.status(TicketTracker.ACK);                      //answers the first, not the refused one
+        assertTrue(first.get());
+        assertEquals(0, tracker.getInFlight());
+    }
+
+    @Test
+    public void get_failsTicketAfterTimeoutWithRoomInWindow() throws Exception {
+        TicketTracker tracker = new TicketTracker();
+        tracker.setAckTimeout(50);
+        TicketTracker.Ticket ticket = tracker.begin();
+        try {
+            ticket.get();
+            fail("ticket without an ACK should fail");
+        } catch (ExecutionException e) {
+            assertEquals("No ACK", e.getCause().getMessage());
+        }
+        assertEquals(0, tracker.getInFlight());
+        assertEquals(1, tracker.getFailedCount());
+    }
+
+    @Test
+    public void lateAnswer_isNotCreditedToNextTicket() throws Exception {
+        TicketTracker tracker = new TicketTracker();
+        tracker.setAckTimeout(50);
+        TicketTracker.Ticket first = tracker.begin();
+        Thread.sleep(80);
+        assertEquals(0, tracker.getInFlight());                 //expired without waiting on it
+        assertTrue(first.isDone());
+
+        TicketTracker.Ticket second = tracker.begin();
+        tracker.status(TicketTracker.ACK);                      //the first ticket's answer, late
+        assertFalse(second.isDone());
+        assertEquals(1, tracker.getLateCount());
+        tracker.status(TicketTracker.NAK);
+        try {
+            second.get(1, TimeUnit.SECONDS);
+            fail("NAK should fail the ticket");
+        } catch (ExecutionException e) {
+            assertEquals("Ticket NAK", e.getCause().getMessage());
+        }
+        assertEquals(0, tracker.getAcknowledgedCount());
+    }
+
+    @Test
+    public void window_everyTicketAcknowledged() throws Exception {
+        Print(4);
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_window() throws Exception {
+        long stopAndWait = Print(1);
+        long pipelined = Print(4);
+        System.out.println(String.format("%d tickets: window 1 %d ms (%.0f tickets/s), window 4 %d ms (%.0f tickets/s)",
+                TICKETS, stopAndWait, TICKETS * 1000.0 / stopAndWait, pipelined, TICKETS * 1000.0 / pipelined));
+    }
+
+    //Returns ms to send every ticket and receive every ACK
+    private long Print(int window) throws Exception {
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        printer.setTicketMillis(2);
+        final Socket socket = new Socket("localhost", printer.getPort());
+        socket.setTcpNoDelay(true);
+        final TicketTracker tracker = new TicketTracker();
+        tracker.setWindow(window);
+
+        //stands in for the session read thread
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[64];
+                try {
+                    InputStream in = socket.getInputStream();
+                    int count;
+                    while ((count = in.read(buffer)) > 0)
+                        tracker.scan(buffer, 0, count);
+                } catch (IOException e) {
+                    //closed
+                }
+            }
+        });
+        reader.start();
+
+        try {
+            OutputStream out = socket.getOutputStream();
+            FGLBuilder fgl = new FGLBuilder();
+            byte[] band = new byte[4000];
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            long start = System.nanoTime();
+            for (int t = 0; t < TICKETS; t++) {
+                results.add(tracker.begin());
+                fgl.reset().rowColumn(10, 10).text("T" + t).rowColumn(20, 10).graphics(band).cut();
+                out.write(fgl.sink().array(), 0, fgl.sink().length());
+                out.flush();
+            }
+            for (Future<Boolean> result : results)
+                assertTrue(result.get(10, TimeUnit.SECONDS));
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+
+            assertEquals(TICKETS, tracker.getAcknowledgedCount());
+            assertEquals(TICKETS, printer.getJobs().size());
+            return (elapsed);
+        } finally {
+            socket.close();
+            printer.stop();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package bocasystems.com.sdk;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for a printer's bulk OUT endpoint behind UsbRequest, for running UsbWriter without a device.
+ *
+ * Queued transfers go over a simulated bus one at a time at a fixed rate, after a fixed setup time per
+ * transfer for the host controller to schedule it.  Each completion reaches the
+ * caller of Await() a fixed latency after the bus finishes with it, like the interrupt and thread wakeup
+ * on a tablet, and the bus idles unless another transfer is already queued.  A transfer can be made to
+ * fail, after sending part of its data if asked; like a halted endpoint, every transfer queued behind it
+ * fails unsent, until nothing is left queued.  Or it can fail without Await() telling which transfer it
+ * was, the way requestWait returns null, and ahead of completions not yet handed out, which come after.
+ */
+public class UsbBusEmulator implements UsbWriter.Bus {
+
+    private static class Transfer {
+        final int slot;
+        final byte[] data;
+        int sent;
+        long readyAt;
+        boolean unseen;                                 //Await() returns -1 for it
+
+        Transfer(int slot, byte[] data) {
+            this.slot = slot;
+            this.data = data;
+        }
+    }
+
+    private final long bytesPerSecond;
+    private final long setupNanos;
+    private final long completionNanos;
+    private final ArrayDeque<Transfer> queued = new ArrayDeque<Transfer>();
+    private final ArrayDeque<Transfer> completed = new ArrayDeque<Transfer>();
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private boolean halted = false;
+    private int failTransfer = -1;                      //0 based index of the transfer to fail
+    private int failSent = 0;                           //bytes it sends before failing
+    private boolean failUnseen = false;                 //its completion does not name its slot
+    private final HashMap<Integer, Integer> sent = new HashMap<Integer, Integer>();  //by slot, last completion
+    private int transfers = 0;
+    private long busyNanos = 0;
+
+    public UsbBusEmulator(long bytesPerSecond, long completionMicros) {
+        this(bytesPerSecond, 0, completionMicros);
+    }
+
+    public UsbBusEmulator(long bytesPerSecond, long setupMicros, long completionMicros) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.setupNanos = setupMicros * 1000L;
+        this.completionNanos = completionMicros * 1000L;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Run();
+            }
+        }, "UsbBusEmulator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //Fail the index'th transfer from now, counting from 0.  -1 fails every transfer.
+    public synchronized void failTransfer(int index) {
+        failTransfer(index, 0);
+    }
+
+    //Fail the index'th transfer from now after it has sent sentBytes
+    public synchronized void failTransfer(int index, int sentBytes) {
+        failTransfer = index < 0 ? Integer.MIN_VALUE : transfers + index;
+        failSent = sentBytes;
+        failUnseen = false;
+    }
+
+    //Fail the index'th transfer from now, unsent, with Await() returning -1 for it before any completion
+    //still waiting to be handed out
+    public synchronized void failTransferUnseen(int index) {
+        failTransfer(index, 0);
+        failUnseen = true;
+    }
+
+    public synchronized byte[] getReceived() {
+        return (received.toByteArray());
+    }
+
+    //Time the bus spent sending
+    public synchronized long getBusyNanos() {
+        return (busyNanos);
+    }
+
+    public long getBytesPerSecond() {
+        return (bytesPerSecond);
+    }
+
+    @Override
+    public synchronized boolean Queue(int slot, ByteBuffer buffer, int length) {
+        byte[] data = new byte[length];
+        buffer.get(data);
+        queued.add(new Transfer(slot, data));
+        notifyAll();
+        return (true);
+    }
+
+    @Override
+    public int Await() {
+        Transfer done;
+        synchronized (this) {
+            try {
+                while (completed.isEmpty())
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return (-1);
+            }
+            done = completed.poll();
+            sent.put(done.slot, done.sent);
+        }
+        long wait;
+        while ((wait = done.readyAt - System.nanoTime()) > 0)
+            LockSupport.parkNanos(wait);
+        return (done.unseen ? -1 : done.slot);
+    }
+
+    @Override
+    public synchronized int Sent(int slot) {
+        Integer count = sent.get(slot);
+        return (count == null ? 0 : count);
+    }
+
+    @Override
+    public synchronized void Cancel(int slot) {
+        Iterator<Transfer> waiting = queued.iterator();
+        while (waiting.hasNext()) {
+            Transfer transfer = waiting.next();
+            if (transfer.slot == slot) {
+                waiting.remove();
+                Complete(transfer, 0, System.nanoTime());
+            }
+        }
+        if (queued.isEmpty())
+            halted = false;
+    }
+
+    @Override
+    public void Close() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void Run() {
+        while (running) {
+            Transfer transfer;
+            boolean fail, halt, unseen;
+            int partial;
+            synchronized (this) {
+                try {
+                    while (queued.isEmpty())
+                        wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                transfer = queued.poll();
+                halt = failTransfer == Integer.MIN_VALUE || transfers == failTransfer;
+                fail = halt || halted;
+                partial = halt ? Math.min(failSent, transfer.data.length) : 0;
+                unseen = halt && failUnseen;
+                transfers++;
+            }
+
+            long start = System.nanoTime();
+            long end = start + setupNanos + transfer.data.length * 1000000000L / bytesPerSecond;
+            long wait;
+            while ((wait = end - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+
+            synchronized (this) {
+                busyNanos += end - start;
+                if (fail) {
+                    received.write(transfer.data, 0, partial);
+                    //the halt is cleared once the queue has drained, after an unseen failure once the
+                    //writer has cancelled what it had queued
+                    halted = unseen || !queued.isEmpty();
+                    transfer.unseen = unseen;
+                    Complete(transfer, partial, end);
+                } else {
+                    received.write(transfer.data, 0, transfer.data.length);
+                    Complete(transfer, transfer.data.length, end);
+                }
+            }
+        }
+    }
+
+    private void Complete(Transfer transfer, int sent, long finished) {
+        transfer.sent = sent;
+        transfer.readyAt = finished + completionNanos;
+        if (transfer.unseen)
+            completed.addFirst(transfer);
+        else
+            completed.add(transfer);
+        notifyAll();
+    }
+}
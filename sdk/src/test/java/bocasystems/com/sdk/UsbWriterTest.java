@@ -0,0 +1,124 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * UsbWriter against a USB bus stand-in: throughput of a logo sized download with one transfer at a time
+ * and with four in flight, and recovery when a transfer fails part way.
+ */
+public class UsbWriterTest {
+
+    private static final long BUS_RATE = 1000000;      //bytes per second, a full speed printer
+    private static final long COMPLETION_MICROS = 2000; //completion to wakeup of the waiting thread
+    private static final int CHUNK = 16384;
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_depth() throws Exception {
+        byte[] logo = Payload(1024 * 1024);
+        double single = Throughput(1, logo);
+        double pipelined = Throughput(4, logo);
+        System.out.println(String.format("USB %d KB download: depth 1 %.0f KB/s, depth 4 %.0f KB/s, bus %d KB/s",
+                logo.length / 1024, single / 1024, pipelined / 1024, BUS_RATE / 1024));
+    }
+
+    @Test
+    public void failedTransfer_resentInOrder() throws Exception {
+        byte[] data = Payload(10 * CHUNK + 123);
+        UsbBusEmulator bus = new UsbBusEmulator(20000000, 100);
+        UsbWriter writer = new UsbWriter(bus, 4, Fixed(), null);
+        writer.setRetryPolicy(5, 1);
+        bus.failTransfer(5);
+        try {
+            assertTrue(writer.write(data, 0, data.length));
+            assertArrayEquals(data, bus.getReceived());
+            assertEquals(1, writer.getRetryCount());
+            assertEquals(data.length, writer.getBytes());
+            assertEquals(11, writer.getTransferCount());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void shortTransfer_onlyRestResent() throws Exception {
+        byte[] data = Payload(10 * CHUNK + 123);
+        UsbBusEmulator bus = new UsbBusEmulator(20000000, 100);
+        UsbWriter writer = new UsbWriter(bus, 4, Fixed(), null);
+        writer.setRetryPolicy(5, 1);
+        bus.failTransfer(3, 1000);
+        try {
+            assertTrue(writer.write(data, 0, data.length));
+            assertArrayEquals(data, bus.getReceived());         //the 1000 bytes that went through are not repeated
+            assertEquals(1, writer.getRetryCount());
+            assertEquals(data.length, writer.getBytes());
+            assertEquals(data.length, writer.getConfirmed());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void unseenFailure_onlyUnsentResent() throws Exception {
+        byte[] data = Payload(10 * CHUNK + 123);
+        UsbBusEmulator bus = new UsbBusEmulator(20000000, 5000);  //slow wakeups, completions pile up
+        UsbWriter writer = new UsbWriter(bus, 4, Fixed(), null);
+        writer.setRetryPolicy(5, 1);
+        bus.failTransferUnseen(4);
+        try {
+            assertTrue(writer.write(data, 0, data.length));
+            assertArrayEquals(data, bus.getReceived());         //transfers that finished before it are not repeated
+            assertEquals(1, writer.getRetryCount());
+            assertEquals(data.length, writer.getBytes());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void retriesRunOut_writeFails() throws Exception {
+        byte[] data = Payload(3 * CHUNK);
+        UsbBusEmulator bus = new UsbBusEmulator(20000000, 100);
+        UsbWriter writer = new UsbWriter(bus, 4, Fixed(), null);
+        writer.setRetryPolicy(3, 1);
+        bus.failTransfer(-1);
+        try {
+            assertFalse(writer.write(data, 0, data.length));
+            assertEquals(4, writer.getRetryCount());
+            assertEquals(0, bus.getReceived().length);
+            assertEquals(0, writer.getConfirmed());               //all of it is left to hold
+        } finally {
+            writer.close();
+        }
+    }
+
+    //Returns bytes per second
+    private double Throughput(int depth, byte[] data) throws Exception {
+        UsbBusEmulator bus = new UsbBusEmulator(BUS_RATE, COMPLETION_MICROS);
+        UsbWriter writer = new UsbWriter(bus, depth, Fixed(), null);
+        try {
+            long start = System.nanoTime();
+            assertTrue(writer.write(data, 0, data.length));
+            long elapsed = System.nanoTime() - start;
+            assertArrayEquals(data, bus.getReceived());
+            return (data.length * 1e9 / elapsed);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static ChunkTuner Fixed() {
+        return (new ChunkTuner(64, CHUNK, CHUNK));
+    }
+
+    private static byte[] Payload(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return (data);
+    }
+}
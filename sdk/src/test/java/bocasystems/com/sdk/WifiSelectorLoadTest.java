@@ -0,0 +1,233 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Load test of the selector transport against a number of printer emulators, each ticket carrying
+ * text and a band of graphics.  Every printer must print every ticket in order and ACK it.  Also X-Off
+ * gating, backpressure, and keeping what was queued when a connection is aborted.
+ */
+public class WifiSelectorLoadTest {
+
+    @Test
+    public void manyPrinters_everyTicketInOrder() throws Exception {
+        Load(8, 100);
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_manyPrinters() throws Exception {
+        int printers = 24;
+        int tickets = 200;
+        long elapsed = Load(printers, tickets);
+        System.out.println(String.format("%d printers x %d tickets: %.1f ms, %.0f tickets/s",
+                printers, tickets, elapsed / 1e6, printers * tickets / (elapsed / 1e9)));
+    }
+
+    @Test
+    public void xoff_holdsWritesUntilXOn() throws Exception {
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        WifiSelector selector = new WifiSelector();
+        FlowControl flow = new FlowControl();
+        flow.setTimeout(0);
+        try {
+            WifiSelector.Connection connection = selector.connect(new InetSocketAddress("localhost", printer.getPort()),
+                    new Quiet(), flow);
+            assertTrue(connection.awaitConnected(5000));
+            flow.scan(new byte[]{FlowControl.XOFF}, 0, 1);
+            byte[] ticket = new FGLBuilder().rowColumn(10, 10).text("TEST").cut().sink().toByteArray();
+            for (int i = 0; i < 10; i++)
+                assertTrue(connection.write(ticket));
+            assertFalse(printer.awaitJobs(1, 300));               //nothing is written while paused
+            assertEquals(10L * ticket.length, connection.getQueuedBytes());
+
+            flow.scan(new byte[]{FlowControl.XON}, 0, 1);
+            assertTrue(connection.flush(5000));
+            assertTrue(printer.awaitJobs(10, 5000));
+            connection.close();
+        } finally {
+            printer.stop();
+            selector.close();
+        }
+    }
+
+    @Test
+    public void abort_keepsEverythingQueued() throws Exception {
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        WifiSelector selector = new WifiSelector();
+        FlowControl flow = new FlowControl();
+        flow.setTimeout(0);
+        final CountDownLatch closed = new CountDownLatch(1);
+        try {
+            WifiSelector.Connection connection = selector.connect(new InetSocketAddress("localhost", printer.getPort()),
+                    new Quiet() {
+                        @Override
+                        public void onClosed(WifiSelector.Connection connection, IOException error) {
+                            closed.countDown();
+                        }
+                    }, flow);
+            assertTrue(connection.awaitConnected(5000));
+            flow.pause();                                       //keeps everything in the queue
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            for (int i = 0; i < 2000; i++) {
+                byte[] ticket = ("<RC10,10>" + i).getBytes("ISO-8859-1");
+                assertTrue(connection.write(ticket, 0, ticket.length, true));
+                written.write(ticket);
+                written.write("<p>".getBytes("ISO-8859-1"));
+            }
+
+            connection.abort();
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            assertFalse(connection.write(new byte[1]));
+            ByteArrayOutputStream unsent = new ByteArrayOutputStream();
+            List<byte[]> taken = connection.takeUnsent();
+            for (byte[] bytes : taken)
+                unsent.write(bytes);
+            assertArrayEquals(written.toByteArray(), unsent.toByteArray());
+            assertTrue(connection.takeUnsent().isEmpty());
+        } finally {
+            printer.stop();
+            selector.close();
+        }
+    }
+
+    @Test
+    public void connectRefused_awaitConnectedFails() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        int port = server.getLocalPort();
+        server.close();
+        WifiSelector selector = new WifiSelector();
+        try {
+            WifiSelector.Connection connection = selector.connect(new InetSocketAddress("localhost", port), new Quiet());
+            assertFalse(connection.awaitConnected(5000));
+            assertFalse(connection.isConnected());
+            assertNotNull(connection.getError());
+        } finally {
+            selector.close();
+        }
+    }
+
+    @Test
+    public void backpressure_limitsQueue() throws Exception {
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        printer.setTicketMillis(1);
+        WifiSelector selector = new WifiSelector();
+        selector.setMaxQueuedBytes(4096);
+        final CountDownLatch closed = new CountDownLatch(1);
+        try {
+            WifiSelector.Connection connection = selector.connect(new InetSocketAddress("localhost", printer.getPort()),
+                    new Quiet() {
+                        @Override
+                        public void onClosed(WifiSelector.Connection connection, IOException error) {
+                            closed.countDown();
+                        }
+                    });
+            byte[] ticket = new FGLBuilder().rowColumn(10, 10).text("TEST").cut().sink().toByteArray();
+            for (int i = 0; i < 2000; i++) {
+                assertTrue(connection.write(ticket));
+                assertTrue(connection.getQueuedBytes() <= 4096);
+            }
+            assertTrue(connection.flush(10000));
+            connection.close();
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            assertFalse(connection.write(ticket));
+            assertTrue(printer.awaitJobs(2000, 10000));
+        } finally {
+            printer.stop();
+            selector.close();
+        }
+    }
+
+    //Sends tickets to every printer through one selector and checks each printed them all in order.
+    //Returns the time until the last ACK.
+    private long Load(int printerCount, int ticketCount) throws Exception {
+        FGLPrinterEmulator[] printers = new FGLPrinterEmulator[printerCount];
+        WifiSelector.Connection[] connections = new WifiSelector.Connection[printerCount];
+        final CountDownLatch acked = new CountDownLatch(printerCount * ticketCount);
+        final AtomicInteger errors = new AtomicInteger();
+        WifiSelector selector = new WifiSelector();
+
+        WifiSelector.Listener listener = new Quiet() {
+            @Override
+            public void onRead(WifiSelector.Connection connection, ByteBuffer data) {
+                while (data.hasRemaining()) {
+                    if (data.get() == FGLPrinterEmulator.ACK)
+                        acked.countDown();
+                }
+            }
+
+            @Override
+            public void onClosed(WifiSelector.Connection connection, IOException error) {
+                if (error != null)
+                    errors.incrementAndGet();
+            }
+        };
+
+        byte[] graphics = new byte[1200];
+        for (int i = 0; i < graphics.length; i++)
+            graphics[i] = (byte) i;
+        FGLBuilder fgl = new FGLBuilder();
+
+        try {
+            for (int p = 0; p < printerCount; p++) {
+                printers[p] = new FGLPrinterEmulator(0).start();
+                connections[p] = selector.connect(new InetSocketAddress("localhost", printers[p].getPort()), listener);
+            }
+
+            long start = System.nanoTime();
+            for (int t = 0; t < ticketCount; t++) {
+                fgl.reset().rowColumn(10, 10).font(3).number(t).rowColumn(40, 10).graphics(graphics).cut();
+                for (int p = 0; p < printerCount; p++)
+                    assertTrue(connections[p].write(fgl.sink().array(), 0, fgl.sink().length()));
+            }
+            assertTrue(acked.await(60, TimeUnit.SECONDS));
+            long elapsed = System.nanoTime() - start;
+
+            for (int p = 0; p < printerCount; p++) {
+                assertEquals(ticketCount, printers[p].getJobs().size());
+                for (int t = 0; t < ticketCount; t++) {
+                    FGLPrinterEmulator.Job job = printers[p].getJobs().get(t);
+                    assertEquals(String.valueOf(t), job.getText().get(0));
+                    assertEquals(graphics.length, job.getGraphicsBytes());
+                }
+            }
+            assertEquals(0, errors.get());
+            return (elapsed);
+        } finally {
+            for (int p = 0; p < printerCount; p++) {
+                if (connections[p] != null)
+                    connections[p].close();
+                if (printers[p] != null)
+                    printers[p].stop();
+            }
+            selector.close();
+        }
+    }
+
+    private static class Quiet implements WifiSelector.Listener {
+        @Override
+        public void onConnected(WifiSelector.Connection connection) {
+        }
+
+        @Override
+        public void onRead(WifiSelector.Connection connection, ByteBuffer data) {
+        }
+
+        @Override
+        public void onClosed(WifiSelector.Connection connection, IOException error) {
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package bocasystems.com.sdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Thousands of small SendString sized tickets sent to the printer emulator, once with a new Thread
+ * per write through the old ISO-8859-1 writer the way Write_WIFI used to work, and once through
+ * the WifiWriter queue writing raw bytes.
+ */
+public class WifiWriterBenchmark {
+
+    private static final int TICKETS = 5000;
+
+    @Test
+    public void writer_keepsOrder() throws Exception {
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        Socket socket = new Socket("localhost", printer.getPort());
+        try {
+            WifiWriter writer = new WifiWriter(new BufferedOutputStream(socket.getOutputStream()), 4);
+            writer.write("<RC10,10>");
+            writer.write("LOGO".getBytes(), 0, 4, false);
+            writer.write("<RC20,10>GRAPHIC".getBytes(), 0, 16, false);
+            writer.write(new byte[]{'x', '<', 'G', '1', '>', (byte) 0xff, 'x'}, 1, 5, true);
+            writer.write("<RC10,10>2<q>");
+            assertTrue(writer.flush(5000));
+            assertTrue(printer.awaitJobs(2, 5000));
+
+            List<FGLPrinterEmulator.Job> jobs = printer.getJobs();
+            assertEquals("LOGO", jobs.get(0).getText().get(0));
+            assertEquals("GRAPHIC", jobs.get(0).getText().get(1));
+            assertTrue(jobs.get(0).isCut());
+            assertEquals(8, jobs.get(0).getRaster().getDotCount());         //0xff arrived as one byte
+            assertFalse(jobs.get(1).isCut());
+            writer.close(1000);
+        } finally {
+            socket.close();
+            printer.stop();
+        }
+    }
+
+    @Test
+    public void writeError_keepsLaterWritesForReconnect() throws Exception {
+        final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                if (sent.size() >= 4)
+                    throw new IOException("connection reset");
+                sent.write(b);
+            }
+        };
+        WifiWriter writer = new WifiWriter(failing, 16);
+        writer.write("ABCD".getBytes(), 0, 4, false);
+        writer.write("EFG".getBytes(), 0, 3, false);            //fails
+        writer.write("<RC2,2>");
+        writer.write("HI".getBytes(), 0, 2, true);
+        assertFalse(writer.flush(1000));
+        assertNotNull(writer.getError());
+        assertFalse(writer.write("late"));                      //refused once the writer has failed
+        writer.close(1000);
+
+        List<byte[]> unsent = writer.takeUnsent();
+        assertEquals(2, unsent.size());
+        assertEquals("<RC2,2>", new String(unsent.get(0), "ISO-8859-1"));
+        assertEquals("HI<p>", new String(unsent.get(1), "ISO-8859-1"));
+        assertTrue(writer.takeUnsent().isEmpty());
+    }
+
+    @Test
+    public void abort_keepsEverythingQueued() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch socketClosed = new CountDownLatch(1);
+        OutputStream dead = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writing.countDown();
+                try {
+                    socketClosed.await();                       //stuck on a dead link until the socket closes
+                } catch (InterruptedException e) {
+                    //closed
+                }
+                throw new IOException("Socket closed");
+            }
+        };
+        WifiWriter writer = new WifiWriter(dead, 8);
+        assertTrue(writer.write("<RC1,1>"));
+        assertTrue(writing.await(1, TimeUnit.SECONDS));
+        assertTrue(writer.write("<RC2,2>"));
+        assertTrue(writer.write(new byte[]{'H', 'I'}, 0, 2, true));
+
+        socketClosed.countDown();
+        writer.abort(1000);
+
+        List<byte[]> unsent = writer.takeUnsent();
+        assertEquals(2, unsent.size());                         //the write on the socket when it closed is lost
+        assertEquals("<RC2,2>", new String(unsent.get(0), "ISO-8859-1"));
+        assertEquals("HI<p>", new String(unsent.get(1), "ISO-8859-1"));
+        assertFalse(writer.write("late"));
+    }
+
+    @Test
+    public void close_sendsEveryAcceptedWrite() throws Exception {
+        for (int run = 0; run < 20; run++) {
+            final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+            OutputStream slow = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    sent.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted");
+                    }
+                    sent.write(b, off, len);
+                }
+            };
+            final WifiWriter writer = new WifiWriter(slow, 2);
+            final int[] accepted = new int[1];
+            Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50; i++) {
+                        if (writer.write(new byte[]{'x'}, 0, 1, false))
+                            accepted[0]++;
+                    }
+                }
+            });
+            producer.start();
+            Thread.sleep(run % 5 + 5);
+            writer.close(5000);
+            producer.join();
+            assertEquals(accepted[0], sent.size());
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmark_smallSendStrings() throws Exception {
+        long threadTime = Send(false);
+        long writerTime = Send(true);
+        System.out.println(String.format("%d SendString tickets: thread per write %.1f ms, writer thread %.1f ms",
+                TICKETS, threadTime / 1e6, writerTime / 1e6));
+    }
+
+    //Returns the time until the emulator has printed every ticket
+    private long Send(boolean queued) throws Exception {
+        FGLPrinterEmulator printer = new FGLPrinterEmulator(0).start();
+        printer.setAckEnabled(false);
+        Socket socket = new Socket("localhost", printer.getPort());
+        try {
+            final OutputStreamWriter out = new OutputStreamWriter(socket.getOutputStream(), "ISO-8859-1");
+            WifiWriter writer = queued ? new WifiWriter(new BufferedOutputStream(socket.getOutputStream(), 16384), 256) : null;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < TICKETS; i++) {
+                final String ticket = "<RC10,10><F3>" + i + "<p>";
+                if (queued) {
+                    writer.write(ticket);
+                } else {
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                out.write(ticket);
+                                out.flush();
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    }).start();
+                }
+            }
+            assertTrue(printer.awaitJobs(TICKETS, 60000));
+            long elapsed = System.nanoTime() - start;
+
+            int outOfOrder = 0;
+            List<FGLPrinterEmulator.Job> jobs = printer.getJobs();
+            for (int i = 0; i < TICKETS; i++) {
+                if (!jobs.get(i).getText().get(0).equals(String.valueOf(i)))
+                    outOfOrder++;
+            }
+            System.out.println((queued ? "writer thread" : "thread per write") + ": " + outOfOrder + " tickets out of order");
+            if (queued) {
+                assertEquals(0, outOfOrder);
+                writer.close(1000);
+            }
+            return (elapsed);
+        } finally {
+            socket.close();
+            printer.stop();
+        }
+    }
+}